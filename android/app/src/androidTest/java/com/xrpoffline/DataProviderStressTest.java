@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.xrpoffline;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Stress test of {@link DataProvider}: list queries while a background writer inserts
+ * thousands of rows in batches.
+ * <p/>
+ * Read latency under load must stay close to the latency without writes. Results are written
+ * to logcat, see {@code adb logcat -s DataProviderStressTest}.
+ */
+public class DataProviderStressTest extends ProviderTestCase2<DataProvider> {
+
+    private static final String TAG = "DataProviderStressTest";
+
+    private static final int INITIAL_ROW_COUNT = 5000;
+    private static final int BATCH_COUNT = 100;
+    private static final int BATCH_SIZE = 100;
+    private static final int BASELINE_RUNS = 50;
+
+    private static final String SORT_ORDER = DatabaseHelper.TIME_CREATED + " desc limit 50";
+
+    // Allowed slowdown of the median read under load, with some room for scheduling noise
+    private static final int MAX_SLOWDOWN = 3;
+    private static final long NOISE = 5000;
+
+    private final Uri uri =
+            Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOGS);
+
+    private ContentResolver resolver;
+
+    private volatile Throwable writerError;
+
+    public DataProviderStressTest() {
+        super(DataProvider.class, DataProvider.CONTENT_URI.getAuthority());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        resolver = getMockContentResolver();
+
+        // Database of the test provider is kept between runs
+        resolver.delete(uri, null, null);
+
+        for (int i = 0; i < INITIAL_ROW_COUNT / BATCH_SIZE; i++) {
+            resolver.bulkInsert(uri, createBatch(i));
+        }
+    }
+
+    public void testReadLatencyDuringBulkInserts() throws InterruptedException {
+        // Readers are blocked by writers without write-ahead logging
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        final long[] baseline = new long[BASELINE_RUNS];
+        for (int i = 0; i < BASELINE_RUNS; i++) {
+            baseline[i] = query();
+        }
+
+        final Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < BATCH_COUNT; i++) {
+                        resolver.bulkInsert(uri, createBatch(INITIAL_ROW_COUNT / BATCH_SIZE + i));
+                    }
+                } catch (Throwable e) {
+                    writerError = e;
+                }
+            }
+        }, TAG);
+
+        long[] loaded = new long[BASELINE_RUNS];
+        int count = 0;
+
+        writer.start();
+
+        while (writer.isAlive()) {
+            if (count == loaded.length) {
+                loaded = Arrays.copyOf(loaded, count * 2);
+            }
+
+            loaded[count++] = query();
+        }
+
+        writer.join();
+
+        if (writerError != null) {
+            throw new AssertionError(writerError);
+        }
+
+        assertEquals(INITIAL_ROW_COUNT + BATCH_COUNT * BATCH_SIZE, countRows());
+        assertTrue("No query ran during the inserts", count > 0);
+
+        loaded = Arrays.copyOf(loaded, count);
+
+        Arrays.sort(baseline);
+        Arrays.sort(loaded);
+
+        final long baselineMedian = baseline[baseline.length / 2];
+        final long loadedMedian = loaded[loaded.length / 2];
+
+        Log.i(TAG, "Read latency in microseconds without writes: median " + baselineMedian
+                + ", max " + baseline[baseline.length - 1] + "; during " + count
+                + " reads under load: median " + loadedMedian
+                + ", 95th percentile " + loaded[loaded.length * 95 / 100]
+                + ", max " + loaded[loaded.length - 1]);
+
+        assertTrue("Reads slowed down from " + baselineMedian + " to " + loadedMedian + " us",
+                loadedMedian <= baselineMedian * MAX_SLOWDOWN + NOISE);
+    }
+
+    /**
+     * Runs the query of the main list and reads all of its rows.
+     *
+     * @return query time in microseconds
+     */
+    private long query() {
+        final long timeStarted = System.nanoTime();
+
+        final Cursor cursor = resolver.query(uri, null, null, null, SORT_ORDER);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return (System.nanoTime() - timeStarted) / 1000;
+    }
+
+    private int countRows() {
+        final Cursor cursor = resolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] createBatch(int batch) {
+        final ContentValues[] values = new ContentValues[BATCH_SIZE];
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            final int sequence = batch * BATCH_SIZE + i;
+
+            values[i] = new ContentValues();
+            values[i].put(DatabaseHelper.TYPE, ItemTypes.TYPE_TRANSACTION);
+            values[i].put(DatabaseHelper.ACCOUNT, "r" + (sequence % 100));
+            values[i].put(DatabaseHelper.DESTINATION, "r" + (sequence % 7));
+            values[i].put(DatabaseHelper.AMOUNT, sequence * 1000L);
+            values[i].put(DatabaseHelper.FEE, 10);
+            values[i].put(DatabaseHelper.SEQUENCE, sequence);
+            values[i].put(DatabaseHelper.MESSAGE, "tesSUCCESS");
+            values[i].put(DatabaseHelper.TIME_CREATED, 1000L * sequence);
+        }
+
+        return values;
+    }
+}
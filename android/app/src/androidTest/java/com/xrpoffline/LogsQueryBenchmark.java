@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.xrpoffline;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of the log list queries at 10k, 100k and 1M rows, with and without indexes.
+ * <p/>
+ * Median query times are written to logcat, see {@code adb logcat -s LogsQueryBenchmark}.
+ */
+public class LogsQueryBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "LogsQueryBenchmark";
+
+    private static final int ACCOUNT_COUNT = 100;
+    private static final int TYPE_COUNT = 5;
+    private static final int PAGE_SIZE = 50;
+    private static final int RUNS = 15;
+
+    // Queries of the main list: all logs, logs of an account, logs of a type
+    private static final String QUERY_ALL = "select * from " + DatabaseHelper.TABLE_LOGS
+            + " order by " + DatabaseHelper.TIME_CREATED + " desc limit " + PAGE_SIZE;
+
+    private static final String QUERY_ACCOUNT = "select * from " + DatabaseHelper.TABLE_LOGS
+            + " where " + DatabaseHelper.SELECTION_ACCOUNT
+            + " order by " + DatabaseHelper.TIME_CREATED + " desc limit " + PAGE_SIZE;
+
+    private static final String QUERY_TYPE = "select * from " + DatabaseHelper.TABLE_LOGS
+            + " where " + DatabaseHelper.TYPE + " = ?"
+            + " order by " + DatabaseHelper.TIME_CREATED + " desc limit " + PAGE_SIZE;
+
+    private static final String[] ACCOUNT_ARGS = {"r" + (ACCOUNT_COUNT / 2)};
+    private static final String[] TYPE_ARGS = {String.valueOf(ItemTypes.TYPE_TRANSACTION)};
+
+    private DatabaseHelper helper;
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Keep the benchmark away from the application database
+        final Context context = new RenamingDelegatingContext(getContext(), "benchmark_");
+
+        helper = new DatabaseHelper(context);
+        db = helper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final String name = new File(db.getPath()).getName();
+
+        helper.close();
+        getContext().deleteDatabase(name);
+
+        super.tearDown();
+    }
+
+    public void testQueryTimes10k() {
+        benchmark(10000);
+    }
+
+    public void testQueryTimes100k() {
+        benchmark(100000);
+    }
+
+    public void testQueryTimes1M() {
+        benchmark(1000000);
+    }
+
+    private void benchmark(int rowCount) {
+        fill(rowCount);
+
+        assertUsesIndex(QUERY_ALL, null, DatabaseHelper.INDEX_LOGS_TIME_CREATED);
+        assertUsesIndex(QUERY_ACCOUNT, ACCOUNT_ARGS, DatabaseHelper.INDEX_LOGS_ACCOUNT);
+        assertUsesIndex(QUERY_TYPE, TYPE_ARGS, DatabaseHelper.INDEX_LOGS_TYPE);
+
+        final long indexedAll = measure(QUERY_ALL, null);
+        final long indexedAccount = measure(QUERY_ACCOUNT, ACCOUNT_ARGS);
+        final long indexedType = measure(QUERY_TYPE, TYPE_ARGS);
+
+        db.execSQL("drop index " + DatabaseHelper.INDEX_LOGS_TIME_CREATED);
+        db.execSQL("drop index " + DatabaseHelper.INDEX_LOGS_ACCOUNT);
+        db.execSQL("drop index " + DatabaseHelper.INDEX_LOGS_TYPE);
+
+        final long scannedAll = measure(QUERY_ALL, null);
+        final long scannedAccount = measure(QUERY_ACCOUNT, ACCOUNT_ARGS);
+        final long scannedType = measure(QUERY_TYPE, TYPE_ARGS);
+
+        Log.i(TAG, rowCount + " rows, median query time in microseconds (indexed / scan): "
+                + "all " + indexedAll + " / " + scannedAll
+                + ", account " + indexedAccount + " / " + scannedAccount
+                + ", type " + indexedType + " / " + scannedType);
+    }
+
+    /**
+     * Inserts logs with random accounts and types, in order of creation time.
+     * Logs are a view, rows go to the log entries and dictionary tables behind it.
+     *
+     * @param rowCount number of rows to insert
+     */
+    private void fill(int rowCount) {
+        final Random random = new Random(rowCount);
+        final long timeStarted = System.currentTimeMillis() - rowCount * 1000L;
+
+        final SQLiteStatement statement = db.compileStatement("insert into "
+                + DatabaseHelper.TABLE_LOG_ENTRIES + " ("
+                + DatabaseHelper.TYPE + ", "
+                + DatabaseHelper.ACCOUNT_ID + ", "
+                + DatabaseHelper.AMOUNT + ", "
+                + DatabaseHelper.FEE + ", "
+                + DatabaseHelper.SEQUENCE + ", "
+                + DatabaseHelper.MESSAGE_ID + ", "
+                + DatabaseHelper.TIME_CREATED + ") values (?, ?, ?, ?, ?, ?, ?)");
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ACCOUNT_COUNT; i++) {
+                final ContentValues account = new ContentValues();
+                account.put(BaseColumns._ID, i + 1);
+                account.put(DatabaseHelper.ADDRESS, "r" + i);
+                db.insert(DatabaseHelper.TABLE_ACCOUNTS, null, account);
+            }
+
+            final ContentValues message = new ContentValues();
+            message.put(BaseColumns._ID, 1);
+            message.put(DatabaseHelper.MESSAGE, "tesSUCCESS");
+            db.insert(DatabaseHelper.TABLE_MESSAGES, null, message);
+
+            for (int i = 0; i < rowCount; i++) {
+                statement.bindLong(1, random.nextInt(TYPE_COUNT));
+                statement.bindLong(2, random.nextInt(ACCOUNT_COUNT) + 1);
+                statement.bindLong(3, random.nextInt(1000000000));
+                statement.bindLong(4, 10);
+                statement.bindLong(5, i);
+                statement.bindLong(6, 1);
+                statement.bindLong(7, timeStarted + i * 1000L);
+                statement.executeInsert();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+
+        db.execSQL("analyze");
+    }
+
+    /**
+     * Runs a query several times and reads all rows of the result.
+     *
+     * @param sql  query to run
+     * @param args query arguments
+     * @return median time in microseconds
+     */
+    private long measure(String sql, String[] args) {
+        final long[] times = new long[RUNS];
+
+        for (int i = 0; i < RUNS; i++) {
+            final long timeStarted = System.nanoTime();
+
+            final Cursor cursor = db.rawQuery(sql, args);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            times[i] = (System.nanoTime() - timeStarted) / 1000;
+        }
+
+        Arrays.sort(times);
+
+        return times[RUNS / 2];
+    }
+
+    private void assertUsesIndex(String sql, String[] args, String index) {
+        final StringBuilder plan = new StringBuilder();
+
+        final Cursor cursor = db.rawQuery("explain query plan " + sql, args);
+        try {
+            final int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertTrue("Query does not use " + index + ":\n" + plan,
+                plan.toString().contains(index));
+    }
+}
@@ -17,20 +17,50 @@
 package com.xrpoffline;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * An implementation of {@code ContentProvider} that executes
  * basic (CRUD) functions on SQLite database tables.
  * <p/>
  * Table name (eventually a table row id) must be appended to the general {@code CONTENT_URI} path.
+ * <p/>
+ * Batches passed to {@link #bulkInsert} and {@link #applyBatch} are written in a single
+ * transaction and observers are notified once per Uri, after the whole batch was committed.
+ * <p/>
+ * Database is kept in write-ahead logging mode where supported. Queries run outside
+ * of transactions on pooled read connections, so they never wait for a batch to finish.
+ * <p/>
+ * {@link DatabaseHelper#TABLE_LOGS} is a view. Logs written through it are stored
+ * in {@link DatabaseHelper#TABLE_LOG_ENTRIES}, with account addresses and messages
+ * replaced by ids of their dictionary rows, so callers see a plain table.
+ * <p/>
+ * Logs deleted by {@link LogTombstones} stay in the table as tombstones, hidden by the view,
+ * until they are purged. Observers of logs are notified of writes to log entries too.
+ * <p/>
+ * {@link DatabaseHelper#TABLE_ACCOUNT_SUMMARY} is maintained by triggers of log entries.
+ * Observers of its Uri are notified whenever logs change.
  */
 @SuppressWarnings("ConstantConditions")
 public class DataProvider extends ContentProvider {
@@ -42,19 +72,78 @@ public class DataProvider extends ContentProvider {
      */
     public static final Uri CONTENT_URI = Uri.parse("content://" + TAG);
 
+    /**
+     * Query parameter that limits the number of rows returned by {@link #query}, given either
+     * as {@code count} or as {@code offset,count}.
+     */
+    public static final String QUERY_LIMIT = "limit";
+
+    /**
+     * Content Uri that compacts the database when it is updated, see {@link #compact}.
+     * Values and selection are ignored.
+     */
+    public static final Uri COMPACT_URI = Uri.withAppendedPath(CONTENT_URI, "compact");
+
+    private static final Uri LOGS_URI =
+            Uri.withAppendedPath(CONTENT_URI, DatabaseHelper.TABLE_LOGS);
+
+    private static final Uri SUMMARY_URI =
+            Uri.withAppendedPath(CONTENT_URI, DatabaseHelper.TABLE_ACCOUNT_SUMMARY);
+
     private static final int ITEMS = 10;
     private static final int ITEM_ID = 11;
+    private static final int COMPACT = 20;
 
     private static final UriMatcher matcher;
 
     static {
         matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        // Added first, the exact path wins over the table wildcard
+        matcher.addURI(TAG, COMPACT_URI.getLastPathSegment(), COMPACT);
         matcher.addURI(TAG, "*", ITEMS);
         matcher.addURI(TAG, "*/#", ITEM_ID);
     }
 
+    // Value of the auto_vacuum pragma that lets free pages be released on demand
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Free pages (about 4 MB of the default page size) worth releasing in one go
+    private static final int COMPACT_MIN_PAGES = 1024;
+
+    // Number of dictionary ids kept in memory, per dictionary
+    private static final int DICTIONARY_CACHE_SIZE = 256;
+
+    // Number of compiled insert statements kept, one per table and column set
+    private static final int STATEMENT_CACHE_SIZE = 16;
+
     private SQLiteDatabase db;
 
+    // Compiled insert statements keyed by table and sorted column names, least recently
+    // used first. Accessed only inside transactions, which serializes the callers.
+    private final LinkedHashMap<String, SQLiteStatement> statements =
+            new LinkedHashMap<String, SQLiteStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        eldest.getValue().close();
+
+                        return true;
+                    }
+
+                    return false;
+                }
+            };
+
+    private final DictionaryTable accounts = new DictionaryTable(DatabaseHelper.TABLE_ACCOUNTS,
+            DatabaseHelper.ADDRESS, DICTIONARY_CACHE_SIZE);
+
+    private final DictionaryTable messages = new DictionaryTable(DatabaseHelper.TABLE_MESSAGES,
+            DatabaseHelper.MESSAGE, DICTIONARY_CACHE_SIZE);
+
+    // Uris changed by the batch running on the current thread, null outside of batches
+    private final ThreadLocal<Set<Uri>> pendingChanges = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
         // Provider is being created, open database here
@@ -79,9 +168,23 @@ public class DataProvider extends ContentProvider {
             }
         }
 
-        final long rowId = db.replace(table, null, values);
+        final long rowId;
+
+        beginTransaction();
+        try {
+            rowId = db.replace(getWritableTable(table), null, normalize(table, values));
+
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            clearDictionaries();
+
+            throw e;
+        } finally {
+            db.endTransaction();
+        }
+
         if (rowId > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
 
             return ContentUris.withAppendedId(uri, rowId);
         }
@@ -89,6 +192,116 @@ public class DataProvider extends ContentProvider {
         return null;
     }
 
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        String table;
+
+        switch (matcher.match(uri)) {
+            case ITEMS: {
+                table = uri.getLastPathSegment();
+
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown URI: " + uri);
+            }
+        }
+
+        int count = 0;
+        boolean isChanged = false;
+
+        beginTransaction();
+        try {
+            // Triggers may update stored rows instead of inserting, e.g. validated transactions
+            final long changes = totalChanges();
+
+            String[] columns = null;
+            SQLiteStatement statement = null;
+
+            for (ContentValues rawRow : values) {
+                if (rawRow.size() == 0) {
+                    continue;
+                }
+
+                final ContentValues row = normalize(table, rawRow);
+
+                // Rows of one batch usually share their columns, so does the statement
+                if (columns == null || !hasColumns(row, columns)) {
+                    columns = getColumns(row);
+                    statement = getInsertStatement(getWritableTable(table), columns);
+                }
+
+                statement.clearBindings();
+                for (int i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, row.get(columns[i]));
+                }
+
+                if (statement.executeInsert() > 0) {
+                    count++;
+                }
+            }
+
+            isChanged = count > 0 || totalChanges() != changes;
+
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            clearDictionaries();
+
+            throw e;
+        } finally {
+            db.endTransaction();
+        }
+
+        if (isChanged) {
+            notifyChange(uri);
+        }
+
+        return count;
+    }
+
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        final Set<Uri> changes = new LinkedHashSet<>();
+        pendingChanges.set(changes);
+
+        final ContentProviderResult[] results;
+
+        beginTransaction();
+        try {
+            results = new ContentProviderResult[operations.size()];
+
+            for (int i = 0; i < operations.size(); i++) {
+                final ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    // Let readers in between, the transaction is committed and reopened
+                    db.yieldIfContendedSafely();
+                }
+
+                results[i] = operation.apply(this, results, i);
+            }
+
+            db.setTransactionSuccessful();
+        } catch (OperationApplicationException | RuntimeException e) {
+            clearDictionaries();
+
+            throw e;
+        } finally {
+            db.endTransaction();
+
+            pendingChanges.set(null);
+        }
+
+        for (Uri uri : changes) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        return results;
+    }
+
     @Override
     public int update(@NonNull Uri uri, ContentValues values,
                       String selection, String[] selectionArgs) {
@@ -109,14 +322,34 @@ public class DataProvider extends ContentProvider {
 
                 break;
             }
+            case COMPACT: {
+                compact();
+
+                return 0;
+            }
             default: {
                 throw new IllegalArgumentException("Unknown URI: " + uri);
             }
         }
 
-        final int count = db.update(table, values, selection, selectionArgs);
+        int count;
+
+        beginTransaction();
+        try {
+            count = db.update(getWritableTable(table), normalize(table, values),
+                    getWritableSelection(table, selection), selectionArgs);
+
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            clearDictionaries();
+
+            throw e;
+        } finally {
+            db.endTransaction();
+        }
+
         if (count > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return count;
@@ -145,9 +378,11 @@ public class DataProvider extends ContentProvider {
             }
         }
 
-        final int count = db.delete(table, selection, selectionArgs);
+        final int count = db.delete(getWritableTable(table),
+                getWritableSelection(table, selection), selectionArgs);
+
         if (count > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return count;
@@ -178,8 +413,8 @@ public class DataProvider extends ContentProvider {
             }
         }
 
-        final Cursor cursor =
-                db.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+        final Cursor cursor = db.query(table, projection, selection, selectionArgs, null, null,
+                sortOrder, uri.getQueryParameter(QUERY_LIMIT));
 
         if (cursor != null) {
             // Set notification Uri to inform loaders about the data changes
@@ -195,6 +430,261 @@ public class DataProvider extends ContentProvider {
         return null;
     }
 
+    /**
+     * Deletes dictionary rows no longer used by any log and optimizes the full-text index
+     * of logs, then returns free pages of the database file to the file system once enough
+     * rows were deleted.
+     * <p/>
+     * Databases created without incremental auto-vacuum are converted on the first call,
+     * which rewrites the whole file once. Writers wait while it runs, so this should only
+     * be called when the app is idle, never from the main thread or inside a transaction.
+     * Called by an update of {@link #COMPACT_URI}.
+     */
+    private void compact() {
+        // Dictionary rows no longer referenced by any log. Accounts with a summary are kept,
+        // so is their balance once their logs are pruned.
+        beginTransaction();
+        try {
+            db.delete(DatabaseHelper.TABLE_ACCOUNTS, BaseColumns._ID + " not in (select "
+                    + DatabaseHelper.ACCOUNT_ID + " from " + DatabaseHelper.TABLE_LOG_ENTRIES
+                    + " where " + DatabaseHelper.ACCOUNT_ID + " is not null union select "
+                    + DatabaseHelper.DESTINATION_ID + " from " + DatabaseHelper.TABLE_LOG_ENTRIES
+                    + " where " + DatabaseHelper.DESTINATION_ID + " is not null union select "
+                    + BaseColumns._ID + " from " + DatabaseHelper.TABLE_ACCOUNT_SUMMARY + ")",
+                    null);
+
+            db.delete(DatabaseHelper.TABLE_MESSAGES, BaseColumns._ID + " not in (select "
+                    + DatabaseHelper.MESSAGE_ID + " from " + DatabaseHelper.TABLE_LOG_ENTRIES
+                    + " where " + DatabaseHelper.MESSAGE_ID + " is not null)", null);
+
+            // Ids of deleted rows must not be handed out again
+            clearDictionaries();
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Merges the full-text index into one segment, deletes only mark its entries as gone
+        db.execSQL("insert into " + DatabaseHelper.TABLE_LOGS_SEARCH + " ("
+                + DatabaseHelper.TABLE_LOGS_SEARCH + ") values ('optimize')");
+
+        if (DatabaseUtils.longForQuery(db, "pragma auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+
+            // Mode can only be switched by rebuilding the file
+            db.execSQL("pragma auto_vacuum = incremental");
+            db.execSQL("vacuum");
+
+            return;
+        }
+
+        if (DatabaseUtils.longForQuery(db, "pragma freelist_count", null) >= COMPACT_MIN_PAGES) {
+            // Every step frees a page, the cursor has to be read to the end
+            final Cursor cursor = db.rawQuery("pragma incremental_vacuum", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows changed through the connection so far, by triggers too.
+     */
+    private long totalChanges() {
+        return DatabaseUtils.longForQuery(db, "select total_changes()", null);
+    }
+
+    /**
+     * Returns the table that stores rows written to a table or a view.
+     *
+     * @param table table or view name
+     * @return name of the table to be written
+     */
+    private static String getWritableTable(String table) {
+        return DatabaseHelper.TABLE_LOGS.equals(table) ? DatabaseHelper.TABLE_LOG_ENTRIES : table;
+    }
+
+    /**
+     * Rewrites a selection of a view to the table that stores its rows, so it may refer
+     * to any column of the view.
+     *
+     * @param table     table or view name
+     * @param selection selection of the table or view, may be {@code null}
+     * @return selection of the table to be written
+     */
+    private static String getWritableSelection(String table, String selection) {
+        if (!DatabaseHelper.TABLE_LOGS.equals(table) || selection == null) {
+            return selection;
+        }
+
+        return BaseColumns._ID + " in (select " + BaseColumns._ID + " from " + table
+                + " where " + selection + ")";
+    }
+
+    /**
+     * Replaces account addresses and messages of logs with ids of their dictionary rows.
+     * Must be called inside a transaction.
+     *
+     * @param table  table or view name
+     * @param values values written to the table or view
+     * @return values to be written to the table that stores the rows
+     */
+    private ContentValues normalize(String table, ContentValues values) {
+        if (!DatabaseHelper.TABLE_LOGS.equals(table)) {
+            return values;
+        }
+
+        final ContentValues normalized = new ContentValues(values);
+
+        intern(normalized, DatabaseHelper.ACCOUNT, DatabaseHelper.ACCOUNT_ID, accounts);
+        intern(normalized, DatabaseHelper.DESTINATION, DatabaseHelper.DESTINATION_ID, accounts);
+        intern(normalized, DatabaseHelper.MESSAGE, DatabaseHelper.MESSAGE_ID, messages);
+
+        return normalized;
+    }
+
+    private void intern(ContentValues values, String column, String idColumn,
+                        DictionaryTable dictionary) {
+
+        if (!values.containsKey(column)) {
+            return;
+        }
+
+        final String value = values.getAsString(column);
+        values.remove(column);
+
+        if (value != null) {
+            values.put(idColumn, dictionary.intern(db, value));
+        } else {
+            values.putNull(idColumn);
+        }
+    }
+
+    /**
+     * Forgets cached dictionary ids, e.g. when a transaction that could add them fails.
+     * Must be called before the transaction ends.
+     */
+    private void clearDictionaries() {
+        accounts.clear();
+        messages.clear();
+    }
+
+    /**
+     * Begins a transaction that does not lock out readers of the write-ahead log.
+     */
+    private void beginTransaction() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Notifies observers about a data change, or defers the notification to the end of
+     * the batch running on the current thread.
+     *
+     * @param uri changed content Uri
+     */
+    private void notifyChange(Uri uri) {
+        final Set<Uri> changes = pendingChanges.get();
+        if (changes != null) {
+            changes.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        final List<String> segments = uri.getPathSegments();
+        if (segments.contains(DatabaseHelper.TABLE_LOG_ENTRIES)) {
+            // Logs are a view of log entries, e.g. of the tombstoned ones
+            notifyChange(LOGS_URI);
+        } else if (segments.contains(DatabaseHelper.TABLE_LOGS)) {
+            // Summaries changed along with the logs
+            notifyChange(SUMMARY_URI);
+        }
+    }
+
+    /**
+     * Returns a compiled statement that inserts a row into a table, replacing any conflicting
+     * one. Must be called inside a transaction.
+     *
+     * @param table   table name
+     * @param columns sorted column names, in order of the statement parameters
+     * @return compiled insert statement
+     */
+    private SQLiteStatement getInsertStatement(String table, String[] columns) {
+        final StringBuilder key = new StringBuilder(table);
+        for (String column : columns) {
+            key.append(' ').append(column);
+        }
+
+        SQLiteStatement statement = statements.get(key.toString());
+        if (statement == null) {
+            final StringBuilder sql = new StringBuilder("insert or replace into ")
+                    .append(table).append(" (");
+
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ", " : "").append(columns[i]);
+            }
+
+            sql.append(") values (");
+
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+
+            sql.append(")");
+
+            statement = db.compileStatement(sql.toString());
+            statements.put(key.toString(), statement);
+        }
+
+        return statement;
+    }
+
+    /**
+     * Returns sorted column names of a row.
+     *
+     * @param row row values
+     * @return column names
+     */
+    private static String[] getColumns(ContentValues row) {
+        final String[] columns = new String[row.size()];
+
+        int i = 0;
+        for (Map.Entry<String, Object> entry : row.valueSet()) {
+            columns[i++] = entry.getKey();
+        }
+
+        Arrays.sort(columns);
+
+        return columns;
+    }
+
+    /**
+     * Checks if a row has exactly the given columns.
+     *
+     * @param row     row values
+     * @param columns column names
+     * @return {@code true} if the row has the same columns
+     */
+    private static boolean hasColumns(ContentValues row, String[] columns) {
+        if (row.size() != columns.length) {
+            return false;
+        }
+
+        for (String column : columns) {
+            if (!row.containsKey(column)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Appends WHERE clause to SQLite statement.
      *
@@ -17,50 +17,329 @@
 package com.xrpoffline;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.provider.BaseColumns;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * SQLiteOpenHelper that manages table creation for this application
+ * <p/>
+ * New databases are created with the latest schema. Existing ones are upgraded one version
+ * at a time by {@link #migrate}, keeping their data.
+ * <p/>
+ * Where supported, the database is opened in write-ahead logging mode, so queries run on
+ * their own connections and are not blocked by writes.
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "xrpoffline";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 11;
+
+    // Pages written to the write-ahead log before it is checkpointed into the database.
+    // Smaller than the default, it keeps page lookups of readers in the log cheap and spreads
+    // checkpoint I/O between bulk inserts.
+    private static final int WAL_AUTOCHECKPOINT = 500;
 
-    // Table name
+    // Size in bytes the write-ahead log is truncated to after a checkpoint
+    private static final int WAL_SIZE_LIMIT = 1024 * 1024;
+
+    // Table names. Logs are a read-only view that joins log entries with the dictionaries,
+    // DataProvider writes them to the underlying tables.
     public static final String TABLE_LOGS = "logs";
+    public static final String TABLE_LOG_ENTRIES = "log_entries";
+    public static final String TABLE_ACCOUNTS = "accounts";
+    public static final String TABLE_MESSAGES = "messages";
+    public static final String TABLE_OUTBOX = "outbox";
+
+    // Latest balance and transaction totals per account, kept up to date by triggers
+    // of log entries. Row ids are the ids of the accounts. Totals cover the logs stored,
+    // successful transactions validated in a ledger only.
+    public static final String TABLE_ACCOUNT_SUMMARY = "account_summary";
+
+    // Full-text index of account addresses and messages of logs, kept up to date by triggers
+    // of log entries. Document ids are the row ids of the logs.
+    public static final String TABLE_LOGS_SEARCH = "logs_search";
 
     // Table columns
     public static final String TYPE = "type";
     public static final String ACCOUNT = "account";
     public static final String DESTINATION = "destination";
     public static final String BALANCE = "balance";
+    public static final String ISSUED_VALUE = "issued_value";
     public static final String AMOUNT = "amount";
     public static final String PEERS = "peers";
     public static final String FEE = "fee";
     public static final String SEQUENCE = "sequence";
     public static final String MESSAGE = "message";
+    public static final String CURRENCY = "currency";
+    public static final String HASH = "hash";
+    public static final String LEDGER_INDEX = "ledger_index";
     public static final String TIME_CREATED = "time_created";
+    public static final String TIME_DELETED = "time_deleted";
+    public static final String COMMAND = "command";
+    public static final String STATUS = "status";
+
+    // Columns of log entries that refer to dictionaries, and dictionary columns
+    public static final String ACCOUNT_ID = "account_id";
+    public static final String DESTINATION_ID = "destination_id";
+    public static final String MESSAGE_ID = "message_id";
+    public static final String ADDRESS = "address";
+
+    // Columns of account summaries
+    public static final String TIME_UPDATED = "time_updated";
+    public static final String TX_COUNT = "tx_count";
+    public static final String TOTAL_AMOUNT = "total_amount";
+    public static final String TOTAL_FEE = "total_fee";
+
+    /**
+     * Selection of log entries that are not deleted. Deleted entries stay in the table as
+     * tombstones until they are purged, the logs view leaves them out.
+     */
+    public static final String SELECTION_LIVE = TIME_DELETED + " = 0";
+
+    /**
+     * Selection of logs by account address that uses the account index of log entries.
+     */
+    public static final String SELECTION_ACCOUNT = ACCOUNT_ID + " = (select " + BaseColumns._ID
+            + " from " + TABLE_ACCOUNTS + " where " + ADDRESS + " = ?)";
+
+    // SQLite statement used to create table of logs, accounts and messages are stored once.
+    // XRP amounts are exact integers of drops, other currencies are exact decimal text.
+    private static final String CREATE_TABLE_LOG_ENTRIES =
+            createTableLogEntries(TABLE_LOG_ENTRIES, DATABASE_VERSION);
+
+    /**
+     * Selection of an account summary by account address.
+     */
+    public static final String SELECTION_SUMMARY_ACCOUNT = BaseColumns._ID + " = (select "
+            + BaseColumns._ID + " from " + TABLE_ACCOUNTS + " where " + ADDRESS + " = ?)";
+
+    // SQLite statement used to create dictionary of account addresses
+    private static final String CREATE_TABLE_ACCOUNTS =
+            "create table " + TABLE_ACCOUNTS + " ("
+                    + BaseColumns._ID + " integer primary key autoincrement, "
+                    + ADDRESS + " text not null unique);";
+
+    // SQLite statement used to create dictionary of engine results and other messages
+    private static final String CREATE_TABLE_MESSAGES =
+            "create table " + TABLE_MESSAGES + " ("
+                    + BaseColumns._ID + " integer primary key autoincrement, "
+                    + MESSAGE + " text not null unique);";
+
+    // SQLite statement used to create view of logs with the columns of the original table
+    private static final String CREATE_VIEW_LOGS = createViewLogs(DATABASE_VERSION);
 
-    // SQLite statement used to create table
-    private static final String CREATE_TABLE_LOGS =
-            "create table " + TABLE_LOGS + " ("
+    // SQLite statement used to create table of commands waiting to be sent
+    private static final String CREATE_TABLE_OUTBOX =
+            "create table " + TABLE_OUTBOX + " ("
+                    + BaseColumns._ID + " integer primary key autoincrement, "
+                    + COMMAND + " text not null, "
+                    + STATUS + " integer not null, "
+                    + MESSAGE + " text, "
+                    + TIME_CREATED + " integer);";
+
+    // Log entries of version 5, amounts were stored as real numbers
+    private static final String CREATE_TABLE_LOG_ENTRIES_5 =
+            "create table " + TABLE_LOG_ENTRIES + " ("
                     + BaseColumns._ID + " integer primary key autoincrement, "
                     + TYPE + " integer, "
-                    + ACCOUNT + " text, "
-                    + DESTINATION + " text, "
+                    + ACCOUNT_ID + " integer references " + TABLE_ACCOUNTS + ", "
+                    + DESTINATION_ID + " integer references " + TABLE_ACCOUNTS + ", "
                     + BALANCE + " real, "
                     + AMOUNT + " real, "
                     + PEERS + " integer, "
                     + FEE + " real, "
                     + SEQUENCE + " integer, "
-                    + MESSAGE + " text, "
+                    + MESSAGE_ID + " integer references " + TABLE_MESSAGES + ", "
+                    + CURRENCY + " text, "
+                    + HASH + " text, "
+                    + LEDGER_INDEX + " integer, "
                     + TIME_CREATED + " integer);";
 
-    // SQLite statement used to drop existing table
-    private static final String DROP_TABLE_LOGS = "drop table if exists " + TABLE_LOGS;
+    // View of logs of version 5
+    private static final String CREATE_VIEW_LOGS_5 =
+            "create view " + TABLE_LOGS + " as select "
+                    + "e." + BaseColumns._ID + " as " + BaseColumns._ID + ", "
+                    + "e." + TYPE + " as " + TYPE + ", "
+                    + "e." + ACCOUNT_ID + " as " + ACCOUNT_ID + ", "
+                    + "a." + ADDRESS + " as " + ACCOUNT + ", "
+                    + "d." + ADDRESS + " as " + DESTINATION + ", "
+                    + "e." + BALANCE + " as " + BALANCE + ", "
+                    + "e." + AMOUNT + " as " + AMOUNT + ", "
+                    + "e." + PEERS + " as " + PEERS + ", "
+                    + "e." + FEE + " as " + FEE + ", "
+                    + "e." + SEQUENCE + " as " + SEQUENCE + ", "
+                    + "m." + MESSAGE + " as " + MESSAGE + ", "
+                    + "e." + CURRENCY + " as " + CURRENCY + ", "
+                    + "e." + HASH + " as " + HASH + ", "
+                    + "e." + LEDGER_INDEX + " as " + LEDGER_INDEX + ", "
+                    + "e." + TIME_CREATED + " as " + TIME_CREATED
+                    + " from " + TABLE_LOG_ENTRIES + " e"
+                    + " left join " + TABLE_ACCOUNTS + " a on a." + BaseColumns._ID
+                    + " = e." + ACCOUNT_ID
+                    + " left join " + TABLE_ACCOUNTS + " d on d." + BaseColumns._ID
+                    + " = e." + DESTINATION_ID
+                    + " left join " + TABLE_MESSAGES + " m on m." + BaseColumns._ID
+                    + " = e." + MESSAGE_ID + ";";
+
+    // SQLite statement used to create table of account summaries. Balance and sequence
+    // are those of the newest account info, they are kept when its log is deleted.
+    // Totals are kept in line with the logs stored, they drop as retention prunes old logs.
+    private static final String CREATE_TABLE_ACCOUNT_SUMMARY =
+            "create table " + TABLE_ACCOUNT_SUMMARY + " ("
+                    + BaseColumns._ID + " integer primary key references " + TABLE_ACCOUNTS + ", "
+                    + BALANCE + " integer, "
+                    + SEQUENCE + " integer, "
+                    + TIME_UPDATED + " integer, "
+                    + TX_COUNT + " integer not null default 0, "
+                    + TOTAL_AMOUNT + " integer not null default 0, "
+                    + TOTAL_FEE + " integer not null default 0);";
+
+    // Summary row of an account, created on its first account info or transaction.
+    // Conflict clauses of triggers are overridden by those of the outer insert, which
+    // replaces rows, so the row is looked up instead of ignoring the conflict.
+    private static final String INSERT_SUMMARY_NEW =
+            "insert into " + TABLE_ACCOUNT_SUMMARY + " (" + BaseColumns._ID + ")"
+                    + " select new." + ACCOUNT_ID + " where new." + ACCOUNT_ID + " is not null"
+                    + " and not exists (select 1 from " + TABLE_ACCOUNT_SUMMARY
+                    + " where " + BaseColumns._ID + " = new." + ACCOUNT_ID + ");";
+
+    // Result of transactions applied as they were sent
+    private static final String RESULT_SUCCESS = "tesSUCCESS";
+
+    // Totals of transactions sent by an account, added for new rows and subtracted for old.
+    // Tombstoned rows do not count, tombstoning and undoing it are updates like any other.
+    // Neither do submit replies nor rejected transactions, only results validated in a ledger.
+    private static final String UPDATE_SUMMARY_ADD_NEW = updateSummaryTotals("new", "+");
+    private static final String UPDATE_SUMMARY_SUBTRACT_OLD = updateSummaryTotals("old", "-");
+
+    // SQLite statements used to create triggers that keep account summaries up to date
+    private static final String CREATE_TRIGGER_SUMMARY_INFO =
+            "create trigger " + TABLE_ACCOUNT_SUMMARY + "_info after insert on "
+                    + TABLE_LOG_ENTRIES + " when new." + TYPE + " = " + ItemTypes.TYPE_INFO
+                    + " and new." + ACCOUNT_ID + " is not null begin "
+                    + INSERT_SUMMARY_NEW
+                    + " update " + TABLE_ACCOUNT_SUMMARY + " set "
+                    + BALANCE + " = new." + BALANCE + ", "
+                    + SEQUENCE + " = new." + SEQUENCE + ", "
+                    + TIME_UPDATED + " = new." + TIME_CREATED
+                    + " where " + BaseColumns._ID + " = new." + ACCOUNT_ID
+                    + " and (" + TIME_UPDATED + " is null"
+                    + " or " + TIME_UPDATED + " <= new." + TIME_CREATED + ");"
+                    + " end;";
+
+    private static final String CREATE_TRIGGER_SUMMARY_TX_INSERT =
+            "create trigger " + TABLE_ACCOUNT_SUMMARY + "_tx_insert after insert on "
+                    + TABLE_LOG_ENTRIES + " when new." + TYPE + " = "
+                    + ItemTypes.TYPE_TRANSACTION + " and new." + ACCOUNT_ID + " is not null begin "
+                    + INSERT_SUMMARY_NEW
+                    + UPDATE_SUMMARY_ADD_NEW
+                    + " end;";
+
+    private static final String CREATE_TRIGGER_SUMMARY_TX_DELETE =
+            "create trigger " + TABLE_ACCOUNT_SUMMARY + "_tx_delete after delete on "
+                    + TABLE_LOG_ENTRIES + " when old." + TYPE + " = "
+                    + ItemTypes.TYPE_TRANSACTION + " begin "
+                    + UPDATE_SUMMARY_SUBTRACT_OLD
+                    + " end;";
+
+    private static final String CREATE_TRIGGER_SUMMARY_TX_UPDATE =
+            "create trigger " + TABLE_ACCOUNT_SUMMARY + "_tx_update after update of "
+                    + TYPE + ", " + ACCOUNT_ID + ", " + AMOUNT + ", " + FEE + ", " + MESSAGE_ID
+                    + ", " + LEDGER_INDEX + ", " + TIME_DELETED + " on " + TABLE_LOG_ENTRIES
+                    + " when old." + TYPE + " = "
+                    + ItemTypes.TYPE_TRANSACTION + " or new." + TYPE + " = "
+                    + ItemTypes.TYPE_TRANSACTION + " begin "
+                    + UPDATE_SUMMARY_SUBTRACT_OLD
+                    + INSERT_SUMMARY_NEW
+                    + UPDATE_SUMMARY_ADD_NEW
+                    + " end;";
+
+    // Summaries go with their accounts once no log refers to them any more
+    private static final String CREATE_TRIGGER_SUMMARY_ACCOUNT_DELETE =
+            "create trigger " + TABLE_ACCOUNT_SUMMARY + "_account_delete after delete on "
+                    + TABLE_ACCOUNTS + " begin "
+                    + "delete from " + TABLE_ACCOUNT_SUMMARY
+                    + " where " + BaseColumns._ID + " = old." + BaseColumns._ID + ";"
+                    + " end;";
+
+    // Transactions are stored once per hash. Responses of submit, account_tx and tx overlap:
+    // a copy validated in a ledger updates a stored one that was not, e.g. the reply to our
+    // own submit, keeping its id and tombstone. Any other copy is skipped before it reaches
+    // the summaries. Ignoring the row works whatever the conflict clause of the outer insert.
+    private static final String CREATE_TRIGGER_TX_UNIQUE =
+            "create trigger " + TABLE_LOG_ENTRIES + "_tx_unique before insert on "
+                    + TABLE_LOG_ENTRIES + " when new." + TYPE + " = "
+                    + ItemTypes.TYPE_TRANSACTION + " and new." + HASH + " is not null begin "
+                    + "update " + TABLE_LOG_ENTRIES + " set "
+                    + updateFromNew(ACCOUNT_ID, DESTINATION_ID, AMOUNT, ISSUED_VALUE, CURRENCY,
+                    FEE, SEQUENCE, MESSAGE_ID, LEDGER_INDEX)
+                    + " where new." + LEDGER_INDEX + " is not null and " + HASH + " = new."
+                    + HASH + " and " + TYPE + " = " + ItemTypes.TYPE_TRANSACTION
+                    + " and " + LEDGER_INDEX + " is null;"
+                    + " select raise(ignore) where exists (select 1 from " + TABLE_LOG_ENTRIES
+                    + " where " + HASH + " = new." + HASH + " and " + TYPE + " = "
+                    + ItemTypes.TYPE_TRANSACTION + ");"
+                    + " end;";
+
+    // SQLite statement used to create full-text index of logs. FTS3 is available on
+    // every supported version, columns are named after those of the logs view.
+    private static final String CREATE_TABLE_LOGS_SEARCH =
+            "create virtual table " + TABLE_LOGS_SEARCH + " using fts3("
+                    + ACCOUNT + ", " + DESTINATION + ", " + MESSAGE + ");";
+
+    // Text of a log entry, looked up in the dictionaries
+    private static final String INSERT_SEARCH_NEW =
+            "insert into " + TABLE_LOGS_SEARCH + " (docid, " + ACCOUNT + ", " + DESTINATION
+                    + ", " + MESSAGE + ") select new." + BaseColumns._ID + ", "
+                    + "(select " + ADDRESS + " from " + TABLE_ACCOUNTS + " where "
+                    + BaseColumns._ID + " = new." + ACCOUNT_ID + "), "
+                    + "(select " + ADDRESS + " from " + TABLE_ACCOUNTS + " where "
+                    + BaseColumns._ID + " = new." + DESTINATION_ID + "), "
+                    + "(select " + MESSAGE + " from " + TABLE_MESSAGES + " where "
+                    + BaseColumns._ID + " = new." + MESSAGE_ID + ");";
+
+    private static final String DELETE_SEARCH_OLD =
+            "delete from " + TABLE_LOGS_SEARCH + " where docid = old." + BaseColumns._ID + ";";
+
+    // SQLite statements used to create triggers that keep the full-text index up to date
+    private static final String CREATE_TRIGGER_SEARCH_INSERT =
+            "create trigger " + TABLE_LOGS_SEARCH + "_insert after insert on "
+                    + TABLE_LOG_ENTRIES + " begin " + INSERT_SEARCH_NEW + " end;";
+
+    private static final String CREATE_TRIGGER_SEARCH_DELETE =
+            "create trigger " + TABLE_LOGS_SEARCH + "_delete after delete on "
+                    + TABLE_LOG_ENTRIES + " begin " + DELETE_SEARCH_OLD + " end;";
+
+    private static final String CREATE_TRIGGER_SEARCH_UPDATE =
+            "create trigger " + TABLE_LOGS_SEARCH + "_update after update of "
+                    + ACCOUNT_ID + ", " + DESTINATION_ID + ", " + MESSAGE_ID
+                    + " on " + TABLE_LOG_ENTRIES + " begin "
+                    + DELETE_SEARCH_OLD + " " + INSERT_SEARCH_NEW + " end;";
+
+    // All triggers, created with the latest schema once every table is in place
+    private static final String[] CREATE_TRIGGERS = new String[]{
+            CREATE_TRIGGER_TX_UNIQUE,
+            CREATE_TRIGGER_SUMMARY_INFO,
+            CREATE_TRIGGER_SUMMARY_TX_INSERT,
+            CREATE_TRIGGER_SUMMARY_TX_DELETE,
+            CREATE_TRIGGER_SUMMARY_TX_UPDATE,
+            CREATE_TRIGGER_SUMMARY_ACCOUNT_DELETE,
+            CREATE_TRIGGER_SEARCH_INSERT,
+            CREATE_TRIGGER_SEARCH_DELETE,
+            CREATE_TRIGGER_SEARCH_UPDATE
+    };
+
+    // Index names
+    public static final String INDEX_LOGS_TIME_CREATED = "logs_time_created";
+    public static final String INDEX_LOGS_ACCOUNT = "logs_account_time_created";
+    public static final String INDEX_LOGS_TYPE = "logs_type_time_created";
+    public static final String INDEX_LOGS_HASH = "logs_hash";
 
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -68,15 +347,436 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Database is created for the first time, create table here
-        db.execSQL(CREATE_TABLE_LOGS);
+        // Database is created for the first time, create tables here
+        db.execSQL(CREATE_TABLE_ACCOUNTS);
+        db.execSQL(CREATE_TABLE_MESSAGES);
+        db.execSQL(CREATE_TABLE_LOG_ENTRIES);
+        db.execSQL(CREATE_VIEW_LOGS);
+        db.execSQL(CREATE_TABLE_OUTBOX);
+
+        db.execSQL(CREATE_TABLE_ACCOUNT_SUMMARY);
+        db.execSQL(CREATE_TABLE_LOGS_SEARCH);
+
+        createIndexes(db, DATABASE_VERSION);
+        createTriggers(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (!db.isReadOnly()) {
+            // Rows replaced by inserts fire delete triggers too, summaries stay in line
+            pragma(db, "recursive_triggers = on");
+        }
+
+        // Write-ahead logging is available since Honeycomb
+        if (!db.isReadOnly() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            if (db.enableWriteAheadLogging()) {
+                pragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT);
+                pragma(db, "journal_size_limit = " + WAL_SIZE_LIMIT);
+
+                // Log stays consistent without syncing every commit, only checkpoints sync
+                pragma(db, "synchronous = normal");
+            }
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Database needs to be upgraded, drop existing table and create a new one
-        db.execSQL(DROP_TABLE_LOGS);
+        // Database needs to be upgraded, apply every migration in order.
+        // Whole upgrade runs in a single transaction, a failed step leaves the old schema.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(db, version);
+        }
+
+        // Triggers of older versions are replaced, steps only add the tables they maintain
+        createTriggers(db);
+    }
+
+    /**
+     * Upgrades the schema from the previous version to the given one.
+     * <p/>
+     * Every schema change must add a new step here and bump {@code DATABASE_VERSION}.
+     *
+     * @param db      database to be upgraded
+     * @param version version to upgrade to
+     */
+    private static void migrate(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2: {
+                // Commands waiting to be sent
+                db.execSQL(CREATE_TABLE_OUTBOX);
+
+                break;
+            }
+            case 3: {
+                // Ledgers, trust lines and transaction details
+                db.execSQL(addColumn(TABLE_LOGS, CURRENCY, "text"));
+                db.execSQL(addColumn(TABLE_LOGS, HASH, "text"));
+                db.execSQL(addColumn(TABLE_LOGS, LEDGER_INDEX, "integer"));
+
+                break;
+            }
+            case 4: {
+                // Indexes for sorting by date and filtering by account or type
+                db.execSQL(createIndex(INDEX_LOGS_TIME_CREATED, TABLE_LOGS, TIME_CREATED));
+                db.execSQL(createIndex(INDEX_LOGS_ACCOUNT, TABLE_LOGS,
+                        ACCOUNT + ", " + TIME_CREATED));
+                db.execSQL(createIndex(INDEX_LOGS_TYPE, TABLE_LOGS, TYPE + ", " + TIME_CREATED));
+
+                break;
+            }
+            case 5: {
+                // Accounts and messages are stored once, logs become a view of the same shape
+                db.execSQL(CREATE_TABLE_ACCOUNTS);
+                db.execSQL(CREATE_TABLE_MESSAGES);
+                db.execSQL(CREATE_TABLE_LOG_ENTRIES_5);
+
+                db.execSQL("insert or ignore into " + TABLE_ACCOUNTS + " (" + ADDRESS + ")"
+                        + " select " + ACCOUNT + " from " + TABLE_LOGS
+                        + " where " + ACCOUNT + " is not null"
+                        + " union select " + DESTINATION + " from " + TABLE_LOGS
+                        + " where " + DESTINATION + " is not null;");
+
+                db.execSQL("insert or ignore into " + TABLE_MESSAGES + " (" + MESSAGE + ")"
+                        + " select distinct " + MESSAGE + " from " + TABLE_LOGS
+                        + " where " + MESSAGE + " is not null;");
+
+                db.execSQL("insert into " + TABLE_LOG_ENTRIES + " ("
+                        + BaseColumns._ID + ", " + TYPE + ", " + ACCOUNT_ID + ", "
+                        + DESTINATION_ID + ", " + BALANCE + ", " + AMOUNT + ", " + PEERS + ", "
+                        + FEE + ", " + SEQUENCE + ", " + MESSAGE_ID + ", " + CURRENCY + ", "
+                        + HASH + ", " + LEDGER_INDEX + ", " + TIME_CREATED + ")"
+                        + " select l." + BaseColumns._ID + ", l." + TYPE + ", a." + BaseColumns._ID
+                        + ", d." + BaseColumns._ID + ", l." + BALANCE + ", l." + AMOUNT
+                        + ", l." + PEERS + ", l." + FEE + ", l." + SEQUENCE
+                        + ", m." + BaseColumns._ID + ", l." + CURRENCY + ", l." + HASH
+                        + ", l." + LEDGER_INDEX + ", l." + TIME_CREATED
+                        + " from " + TABLE_LOGS + " l"
+                        + " left join " + TABLE_ACCOUNTS + " a on a." + ADDRESS
+                        + " = l." + ACCOUNT
+                        + " left join " + TABLE_ACCOUNTS + " d on d." + ADDRESS
+                        + " = l." + DESTINATION
+                        + " left join " + TABLE_MESSAGES + " m on m." + MESSAGE
+                        + " = l." + MESSAGE + ";");
+
+                // Indexes of the old table are dropped with it
+                db.execSQL("drop table " + TABLE_LOGS + ";");
+                db.execSQL(CREATE_VIEW_LOGS_5);
+
+                createIndexes(db, 5);
+
+                break;
+            }
+            case 6: {
+                // Column types can not be changed, log entries are copied to a new table.
+                // XRP amounts were whole drops already, trust line balances become text.
+                final String rebuilt = TABLE_LOG_ENTRIES + "_rebuilt";
+
+                db.execSQL("drop view " + TABLE_LOGS + ";");
+                db.execSQL(createTableLogEntries(rebuilt, 6));
+
+                db.execSQL("insert into " + rebuilt + " ("
+                        + BaseColumns._ID + ", " + TYPE + ", " + ACCOUNT_ID + ", "
+                        + DESTINATION_ID + ", " + BALANCE + ", " + ISSUED_VALUE + ", "
+                        + AMOUNT + ", " + PEERS + ", " + FEE + ", " + SEQUENCE + ", "
+                        + MESSAGE_ID + ", " + CURRENCY + ", " + HASH + ", " + LEDGER_INDEX + ", "
+                        + TIME_CREATED + ")"
+                        + " select " + BaseColumns._ID + ", " + TYPE + ", " + ACCOUNT_ID + ", "
+                        + DESTINATION_ID + ", "
+                        + "case when " + TYPE + " = " + ItemTypes.TYPE_TRUST_LINE + " then null"
+                        + " else cast(round(" + BALANCE + ") as integer) end, "
+                        + "case when " + TYPE + " = " + ItemTypes.TYPE_TRUST_LINE
+                        + " then cast(" + BALANCE + " as text) end, "
+                        + "cast(round(" + AMOUNT + ") as integer), " + PEERS + ", "
+                        + "cast(round(" + FEE + ") as integer), " + SEQUENCE + ", "
+                        + MESSAGE_ID + ", " + CURRENCY + ", " + HASH + ", " + LEDGER_INDEX + ", "
+                        + TIME_CREATED
+                        + " from " + TABLE_LOG_ENTRIES + ";");
+
+                // Indexes are dropped with the old table and created again for the new one
+                db.execSQL("drop table " + TABLE_LOG_ENTRIES + ";");
+                db.execSQL("alter table " + rebuilt + " rename to " + TABLE_LOG_ENTRIES + ";");
+
+                db.execSQL(createViewLogs(6));
+
+                createIndexes(db, 6);
+
+                break;
+            }
+            case 7: {
+                // Account summaries, filled from the logs stored so far
+                db.execSQL(CREATE_TABLE_ACCOUNT_SUMMARY);
+
+                final String newest = " from " + TABLE_LOG_ENTRIES + " i where i." + ACCOUNT_ID
+                        + " = e." + ACCOUNT_ID + " and i." + TYPE + " = " + ItemTypes.TYPE_INFO
+                        + " order by i." + TIME_CREATED + " desc, i." + BaseColumns._ID
+                        + " desc limit 1)";
+
+                final String isTransaction = TYPE + " = " + ItemTypes.TYPE_TRANSACTION;
+
+                db.execSQL("insert into " + TABLE_ACCOUNT_SUMMARY + " ("
+                        + BaseColumns._ID + ", " + BALANCE + ", " + SEQUENCE + ", "
+                        + TIME_UPDATED + ", " + TX_COUNT + ", " + TOTAL_AMOUNT + ", "
+                        + TOTAL_FEE + ")"
+                        + " select " + ACCOUNT_ID + ", "
+                        + "(select i." + BALANCE + newest + ", "
+                        + "(select i." + SEQUENCE + newest + ", "
+                        + "(select i." + TIME_CREATED + newest + ", "
+                        + "count(case when " + isTransaction + " then 1 end), "
+                        + "ifnull(sum(case when " + isTransaction + " then " + AMOUNT
+                        + " end), 0), "
+                        + "ifnull(sum(case when " + isTransaction + " then " + FEE
+                        + " end), 0)"
+                        + " from " + TABLE_LOG_ENTRIES + " e"
+                        + " where " + ACCOUNT_ID + " is not null and " + TYPE + " in ("
+                        + ItemTypes.TYPE_INFO + ", " + ItemTypes.TYPE_TRANSACTION + ")"
+                        + " group by " + ACCOUNT_ID + ";");
+
+                break;
+            }
+            case 8: {
+                // Full-text index, filled from the logs stored so far
+                db.execSQL(CREATE_TABLE_LOGS_SEARCH);
+
+                db.execSQL("insert into " + TABLE_LOGS_SEARCH + " (docid, " + ACCOUNT + ", "
+                        + DESTINATION + ", " + MESSAGE + ") select " + BaseColumns._ID + ", "
+                        + ACCOUNT + ", " + DESTINATION + ", " + MESSAGE
+                        + " from " + TABLE_LOGS + ";");
+
+                break;
+            }
+            case 9: {
+                // Deleted logs are tombstoned first, the view hides them until they are purged.
+                // Time indexes lead with the tombstone, so live rows are still read in order.
+                db.execSQL(addColumn(TABLE_LOG_ENTRIES, TIME_DELETED,
+                        "integer not null default 0"));
+
+                db.execSQL("drop view " + TABLE_LOGS + ";");
+                db.execSQL(createViewLogs(9));
+
+                db.execSQL("drop index " + INDEX_LOGS_TIME_CREATED + ";");
+                db.execSQL("drop index " + INDEX_LOGS_TYPE + ";");
+                createIndexes(db, 9);
+
+                break;
+            }
+            case 10: {
+                // Transactions stored more than once. The oldest row validated in a ledger
+                // is kept, or the oldest row if none of them was.
+                final String isTransaction = TYPE + " = " + ItemTypes.TYPE_TRANSACTION;
+                final String duplicates = "select e." + BaseColumns._ID
+                        + " from " + TABLE_LOG_ENTRIES + " e where e." + isTransaction
+                        + " and e." + HASH + " is not null and exists (select 1 from "
+                        + TABLE_LOG_ENTRIES + " f where f." + HASH + " = e." + HASH
+                        + " and f." + isTransaction + " and ((f." + LEDGER_INDEX
+                        + " is not null and e." + LEDGER_INDEX + " is null) or ((f."
+                        + LEDGER_INDEX + " is null) = (e." + LEDGER_INDEX + " is null) and f."
+                        + BaseColumns._ID + " < e." + BaseColumns._ID + ")))";
+
+                // Triggers of the version upgraded from may not maintain either of them
+                db.execSQL("delete from " + TABLE_LOGS_SEARCH + " where docid in ("
+                        + duplicates + ");");
+                db.execSQL("delete from " + TABLE_LOG_ENTRIES + " where "
+                        + BaseColumns._ID + " in (" + duplicates + ");");
+
+                computeSummaryTotals(db);
+
+                db.execSQL(createIndex(INDEX_LOGS_HASH, TABLE_LOG_ENTRIES, HASH));
+
+                break;
+            }
+            case 11: {
+                // Totals count successful transactions validated in a ledger only
+                computeSummaryTotals(db);
+
+                break;
+            }
+            default: {
+                throw new IllegalStateException("No migration to version " + version);
+            }
+        }
+    }
+
+    /**
+     * Runs a pragma, some of them return a row so they can not be executed as statements.
+     *
+     * @param db     database to be configured
+     * @param pragma pragma and its value
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        final Cursor cursor = db.rawQuery("pragma " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Creates all triggers, replacing those of an older schema. Triggers are dropped along
+     * with their tables, so rebuilding a table needs them created again.
+     *
+     * @param db database to be changed
+     */
+    private static void createTriggers(SQLiteDatabase db) {
+        final List<String> names = new ArrayList<>();
+
+        final Cursor cursor = db.rawQuery("select name from sqlite_master"
+                + " where type = 'trigger'", null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String name : names) {
+            db.execSQL("drop trigger " + name + ";");
+        }
+
+        for (String trigger : CREATE_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+    }
+
+    /**
+     * Creates the indexes that serve the log list, its filters and the lookup of stored
+     * transactions, in their shape at a schema version.
+     *
+     * @param db      database to be changed
+     * @param version schema version of log entries
+     */
+    private static void createIndexes(SQLiteDatabase db, int version) {
+        // Live rows of one filter are adjacent, in the list order
+        final String live = version >= 9 ? TIME_DELETED + ", " : "";
+
+        db.execSQL(createIndex(INDEX_LOGS_TIME_CREATED, TABLE_LOG_ENTRIES, live + TIME_CREATED));
+        db.execSQL(createIndex(INDEX_LOGS_ACCOUNT, TABLE_LOG_ENTRIES,
+                ACCOUNT_ID + ", " + TIME_CREATED));
+        db.execSQL(createIndex(INDEX_LOGS_TYPE, TABLE_LOG_ENTRIES,
+                live + TYPE + ", " + TIME_CREATED));
+
+        if (version >= 10) {
+            db.execSQL(createIndex(INDEX_LOGS_HASH, TABLE_LOG_ENTRIES, HASH));
+        }
+    }
+
+    private static String updateSummaryTotals(String row, String operator) {
+        return " update " + TABLE_ACCOUNT_SUMMARY + " set "
+                + TX_COUNT + " = " + TX_COUNT + " " + operator + " 1, "
+                + TOTAL_AMOUNT + " = " + TOTAL_AMOUNT + " " + operator
+                + " ifnull(" + row + "." + AMOUNT + ", 0), "
+                + TOTAL_FEE + " = " + TOTAL_FEE + " " + operator
+                + " ifnull(" + row + "." + FEE + ", 0)"
+                + " where " + isCounted(row)
+                + " and " + BaseColumns._ID + " = " + row + "." + ACCOUNT_ID + ";";
+    }
+
+    /**
+     * Returns the selection of a log row that counts towards the totals of its account:
+     * a live transaction whose successful result was validated in a ledger.
+     *
+     * @param row name or alias of the row, e.g. {@code new}
+     */
+    private static String isCounted(String row) {
+        return row + "." + TYPE + " = " + ItemTypes.TYPE_TRANSACTION
+                + " and " + row + "." + TIME_DELETED + " = 0"
+                + " and " + row + "." + LEDGER_INDEX + " is not null"
+                + " and " + row + "." + MESSAGE_ID + " = (select " + BaseColumns._ID
+                + " from " + TABLE_MESSAGES + " where " + MESSAGE + " = '" + RESULT_SUCCESS
+                + "')";
+    }
+
+    /**
+     * Computes totals of all account summaries from the logs stored.
+     *
+     * @param db database to be changed
+     */
+    private static void computeSummaryTotals(SQLiteDatabase db) {
+        final String counted = " from " + TABLE_LOG_ENTRIES + " e where e." + ACCOUNT_ID
+                + " = " + TABLE_ACCOUNT_SUMMARY + "." + BaseColumns._ID + " and "
+                + isCounted("e") + ")";
+
+        db.execSQL("update " + TABLE_ACCOUNT_SUMMARY + " set "
+                + TX_COUNT + " = (select count(*)" + counted + ", "
+                + TOTAL_AMOUNT + " = (select ifnull(sum(e." + AMOUNT + "), 0)" + counted + ", "
+                + TOTAL_FEE + " = (select ifnull(sum(e." + FEE + "), 0)" + counted + ";");
+    }
+
+    /**
+     * Returns assignments of a trigger that take columns of the new row, unless it has
+     * no value for them.
+     */
+    private static String updateFromNew(String... columns) {
+        final StringBuilder assignments = new StringBuilder();
+
+        for (String column : columns) {
+            assignments.append(assignments.length() > 0 ? ", " : "").append(column)
+                    .append(" = ifnull(new.").append(column).append(", ").append(column)
+                    .append(')');
+        }
+
+        return assignments.toString();
+    }
+
+    private static String addColumn(String table, String column, String type) {
+        return "alter table " + table + " add column " + column + " " + type + ";";
+    }
+
+    private static String createTableLogEntries(String table, int version) {
+        return "create table " + table + " ("
+                + BaseColumns._ID + " integer primary key autoincrement, "
+                + TYPE + " integer, "
+                + ACCOUNT_ID + " integer references " + TABLE_ACCOUNTS + ", "
+                + DESTINATION_ID + " integer references " + TABLE_ACCOUNTS + ", "
+                + BALANCE + " integer, "
+                + ISSUED_VALUE + " text, "
+                + AMOUNT + " integer, "
+                + PEERS + " integer, "
+                + FEE + " integer, "
+                + SEQUENCE + " integer, "
+                + MESSAGE_ID + " integer references " + TABLE_MESSAGES + ", "
+                + CURRENCY + " text, "
+                + HASH + " text, "
+                + LEDGER_INDEX + " integer, "
+                + TIME_CREATED + " integer"
+                + (version >= 9 ? ", " + TIME_DELETED + " integer not null default 0" : "")
+                + ");";
+    }
+
+    private static String createViewLogs(int version) {
+        return "create view " + TABLE_LOGS + " as select "
+                + "e." + BaseColumns._ID + " as " + BaseColumns._ID + ", "
+                + "e." + TYPE + " as " + TYPE + ", "
+                + "e." + ACCOUNT_ID + " as " + ACCOUNT_ID + ", "
+                + "a." + ADDRESS + " as " + ACCOUNT + ", "
+                + "d." + ADDRESS + " as " + DESTINATION + ", "
+                + "e." + BALANCE + " as " + BALANCE + ", "
+                + "e." + ISSUED_VALUE + " as " + ISSUED_VALUE + ", "
+                + "e." + AMOUNT + " as " + AMOUNT + ", "
+                + "e." + PEERS + " as " + PEERS + ", "
+                + "e." + FEE + " as " + FEE + ", "
+                + "e." + SEQUENCE + " as " + SEQUENCE + ", "
+                + "m." + MESSAGE + " as " + MESSAGE + ", "
+                + "e." + CURRENCY + " as " + CURRENCY + ", "
+                + "e." + HASH + " as " + HASH + ", "
+                + "e." + LEDGER_INDEX + " as " + LEDGER_INDEX + ", "
+                + "e." + TIME_CREATED + " as " + TIME_CREATED
+                + " from " + TABLE_LOG_ENTRIES + " e"
+                + " left join " + TABLE_ACCOUNTS + " a on a." + BaseColumns._ID
+                + " = e." + ACCOUNT_ID
+                + " left join " + TABLE_ACCOUNTS + " d on d." + BaseColumns._ID
+                + " = e." + DESTINATION_ID
+                + " left join " + TABLE_MESSAGES + " m on m." + BaseColumns._ID
+                + " = e." + MESSAGE_ID
+                + (version >= 9 ? " where e." + TIME_DELETED + " = 0" : "")
+                + ";";
+    }
 
-        onCreate(db);
+    private static String createIndex(String index, String table, String columns) {
+        return "create index if not exists " + index + " on " + table + " (" + columns + ");";
     }
 }
\ No newline at end of file
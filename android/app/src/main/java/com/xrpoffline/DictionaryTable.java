@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.support.v4.util.LruCache;
+
+/**
+ * Table of distinct strings, e.g. account addresses, that other tables refer to by row id.
+ * <p/>
+ * Ids of recently used strings are cached. The cache only stays in line with the table
+ * if {@link #intern} is called inside transactions and {@link #clear} is called before
+ * a transaction that interned strings is rolled back, or once rows of the table are deleted.
+ */
+public class DictionaryTable {
+
+    private final String table;
+    private final String column;
+
+    private final LruCache<String, Long> ids;
+
+    private SQLiteStatement select;
+    private SQLiteStatement insert;
+
+    /**
+     * Creates a dictionary backed by a table.
+     *
+     * @param table     table name
+     * @param column    name of the unique text column
+     * @param cacheSize number of ids kept in memory
+     */
+    public DictionaryTable(String table, String column, int cacheSize) {
+        this.table = table;
+        this.column = column;
+
+        ids = new LruCache<>(cacheSize);
+    }
+
+    /**
+     * Returns the row id of a string, adding the string to the table if it is not there yet.
+     *
+     * @param db    database of the table, in a transaction
+     * @param value string to be looked up
+     * @return row id of the string
+     */
+    public synchronized long intern(SQLiteDatabase db, String value) {
+        final Long cached = ids.get(value);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (select == null) {
+            select = db.compileStatement("select " + BaseColumns._ID + " from " + table
+                    + " where " + column + " = ?");
+
+            insert = db.compileStatement("insert into " + table + " (" + column + ") values (?)");
+        }
+
+        long id;
+
+        select.bindString(1, value);
+        try {
+            id = select.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // Seen for the first time
+            insert.bindString(1, value);
+            id = insert.executeInsert();
+        }
+
+        ids.put(value, id);
+
+        return id;
+    }
+
+    /**
+     * Forgets all cached ids.
+     */
+    public synchronized void clear() {
+        ids.evictAll();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Arithmetic and formatting of XRP amounts given in drops, the smallest unit of XRP.
+ * <p/>
+ * Amounts are plain {@code long} values, so they stay exact and are never boxed. All XRP
+ * in existence, 10^17 drops, fits into a {@code long} many times over.
+ */
+public final class Drops {
+
+    /**
+     * Number of drops in one XRP.
+     */
+    public static final long DROPS_PER_XRP = 1000000;
+
+    /**
+     * Length of a buffer that holds any formatted amount: a sign, 19 digits, a decimal point
+     * and 6 decimal places.
+     */
+    public static final int MAX_LENGTH = 27;
+
+    // Number of decimal places of XRP amounts
+    private static final int XRP_DECIMALS = 6;
+
+    // Static methods only
+    private Drops() {
+    }
+
+    /**
+     * Converts an amount of XRP in decimal notation, e.g. {@code 0.00001} or {@code 1e-05},
+     * to drops. Fractions of a drop are rounded up.
+     *
+     * @param xrp amount of XRP
+     * @return amount in drops
+     * @throws NumberFormatException if the amount is not a number or it is out of range
+     */
+    public static long fromXrp(String xrp) {
+        try {
+            return new BigDecimal(xrp).movePointRight(XRP_DECIMALS)
+                    .setScale(0, RoundingMode.CEILING).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + xrp);
+        }
+    }
+
+    /**
+     * Multiplies an amount by a decimal factor, e.g. a load factor. Fractions of a drop
+     * are rounded up, as the server does for fees.
+     *
+     * @param drops  amount in drops
+     * @param factor factor in decimal notation
+     * @return amount in drops
+     * @throws NumberFormatException if the factor is not a number or the result is out of range
+     */
+    public static long multiply(long drops, String factor) {
+        try {
+            return new BigDecimal(factor).multiply(BigDecimal.valueOf(drops))
+                    .setScale(0, RoundingMode.CEILING).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + factor);
+        }
+    }
+
+    /**
+     * Scales an amount by a ratio, e.g. the load factor over the load base. Fractions of a drop
+     * are rounded up. Fees and load factors are small enough for the product not to overflow.
+     *
+     * @param drops       amount in drops, not negative
+     * @param numerator   numerator of the ratio, not negative
+     * @param denominator denominator of the ratio, positive
+     * @return amount in drops
+     */
+    public static long scale(long drops, long numerator, long denominator) {
+        return (drops * numerator + denominator - 1) / denominator;
+    }
+
+    /**
+     * Formats an amount as XRP, rounded half up to a given number of decimal places.
+     *
+     * @param drops    amount in drops
+     * @param decimals number of decimal places, up to 6
+     * @return amount of XRP in decimal notation, e.g. {@code 1234.57}
+     */
+    public static String format(long drops, int decimals) {
+        final char[] buffer = new char[MAX_LENGTH];
+
+        return new String(buffer, 0, format(drops, decimals, buffer));
+    }
+
+    /**
+     * Formats an amount as XRP into a buffer, without creating any objects, e.g. to be shown
+     * by {@link android.widget.TextView#setText(char[], int, int)}.
+     *
+     * @param drops    amount in drops
+     * @param decimals number of decimal places, up to 6
+     * @param buffer   buffer of at least {@link #MAX_LENGTH} characters, written from the start
+     * @return number of characters written
+     */
+    public static int format(long drops, int decimals, char[] buffer) {
+        final long divisor = pow10(XRP_DECIMALS - decimals);
+        final long magnitude = Math.abs(drops);
+
+        // Rounded amount in units of the last decimal place shown
+        long units = (magnitude + divisor / 2) / divisor;
+
+        final boolean isNegative = drops < 0 && units != 0;
+
+        int length = decimals > 0 ? decimals + 2 : 1;
+        for (long whole = units / pow10(decimals); whole >= 10; whole /= 10) {
+            length++;
+        }
+
+        if (isNegative) {
+            length++;
+        }
+
+        // Digits are written from the last one back, the fraction keeps its leading zeros
+        int pos = length;
+
+        for (int i = 0; i < decimals; i++) {
+            buffer[--pos] = (char) ('0' + units % 10);
+            units /= 10;
+        }
+
+        if (decimals > 0) {
+            buffer[--pos] = '.';
+        }
+
+        do {
+            buffer[--pos] = (char) ('0' + units % 10);
+            units /= 10;
+        } while (units > 0);
+
+        if (isNegative) {
+            buffer[--pos] = '-';
+        }
+
+        return length;
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.support.v4.util.Pools;
+import android.util.Log;
+
+/**
+ * In-process event bus used to pass WebSocket events and parse results between components.
+ * <p/>
+ * Events are stored in a bounded ring buffer of preallocated slots and delivered by a single
+ * dispatcher thread, only to the subscribers of the event type. Subscribers may ask for
+ * delivery on the main thread, such events are copied to pooled objects, so no allocation
+ * happens per event once the pools are warmed up.
+ * <p/>
+ * Publishing blocks while the ring buffer is full. Events published by dispatcher thread
+ * subscribers are delivered right away in that case, as the dispatcher can not wait for itself.
+ */
+public class EventBus {
+
+    private static final String TAG = EventBus.class.getName();
+
+    // Event types
+    public static final int EVENT_CONNECTION_ESTABLISHED = 0;
+    public static final int EVENT_MESSAGE = 1;
+    public static final int EVENT_CONNECTION_CLOSED = 2;
+    public static final int EVENT_CONNECTION_ERROR = 3;
+    public static final int EVENT_PARSE_FINISHED = 4;
+    public static final int EVENT_PARSE_ERROR = 5;
+
+    private static final int EVENT_TYPE_COUNT = 6;
+
+    // Number of ring buffer slots, must be a power of two
+    private static final int CAPACITY = 256;
+
+    // Number of event copies kept for main thread delivery
+    private static final int MAIN_POOL_SIZE = 32;
+
+    /**
+     * Interface definition for a callback to be invoked when an event is published.
+     */
+    public interface Subscriber {
+
+        /**
+         * Called when an event of subscribed type was published.
+         * <p/>
+         * The event object is reused once this method returns, it must not be kept.
+         *
+         * @param event published event
+         */
+        void onEvent(Event event);
+    }
+
+    /**
+     * Event passed through the bus. Fields not used by an event type are left empty.
+     */
+    public static final class Event {
+
+        /**
+         * One of {@code EVENT_*} constants.
+         */
+        public int type;
+
+        /**
+         * Id of the request the event relates to, or {@link WebSocketClientService#NO_ID}.
+         */
+        public int id;
+
+        /**
+         * Request round trip time in milliseconds.
+         */
+        public long latency;
+
+        /**
+         * Message, reason or error description.
+         */
+        public String text;
+
+        /**
+         * Command of the request the event relates to.
+         */
+        public String command;
+
+        /**
+         * Additional typed data, e.g. parsed {@code ContentValues}.
+         */
+        public Object payload;
+
+        void set(Event event) {
+            type = event.type;
+            id = event.id;
+            latency = event.latency;
+            text = event.text;
+            command = event.command;
+            payload = event.payload;
+        }
+
+        void clear() {
+            id = WebSocketClientService.NO_ID;
+            latency = 0;
+            text = null;
+            command = null;
+            payload = null;
+        }
+    }
+
+    /**
+     * Subscriber bound to the thread it wants to be notified on.
+     */
+    private static class Registration {
+
+        final Subscriber subscriber;
+        final boolean onMainThread;
+
+        Registration(Subscriber subscriber, boolean onMainThread) {
+            this.subscriber = subscriber;
+            this.onMainThread = onMainThread;
+        }
+    }
+
+    private static EventBus instance;
+
+    private final Thread dispatcher;
+
+    private final Event[] ring = new Event[CAPACITY];
+    private final Object lock = new Object();
+
+    // Sequence of the next slot to publish to and the next slot to dispatch
+    private long head;
+    private long tail;
+
+    // Copy-on-write arrays of registrations, indexed by event type
+    private volatile Registration[][] registrations = new Registration[EVENT_TYPE_COUNT][0];
+
+    private final Pools.SynchronizedPool<Event> mainPool =
+            new Pools.SynchronizedPool<>(MAIN_POOL_SIZE);
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+
+        @Override
+        public boolean handleMessage(Message message) {
+            final Event event = (Event) message.obj;
+
+            deliver(event, true);
+
+            event.clear();
+            mainPool.release(event);
+
+            return true;
+        }
+    });
+
+    /**
+     * Returns the shared event bus.
+     *
+     * @return event bus instance
+     */
+    public static synchronized EventBus getInstance() {
+        if (instance == null) {
+            instance = new EventBus();
+        }
+
+        return instance;
+    }
+
+    private EventBus() {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Event();
+            ring[i].clear();
+        }
+
+        dispatcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, TAG);
+
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Registers a subscriber for an event type.
+     *
+     * @param type         one of {@code EVENT_*} constants
+     * @param subscriber   subscriber to be notified
+     * @param onMainThread {@code true} to be notified on the main thread,
+     *                     {@code false} to be notified on the dispatcher thread
+     */
+    public void subscribe(int type, Subscriber subscriber, boolean onMainThread) {
+        synchronized (lock) {
+            final Registration[][] updated = registrations.clone();
+            final Registration[] current = updated[type];
+
+            final Registration[] added = new Registration[current.length + 1];
+            System.arraycopy(current, 0, added, 0, current.length);
+            added[current.length] = new Registration(subscriber, onMainThread);
+
+            updated[type] = added;
+            registrations = updated;
+        }
+    }
+
+    /**
+     * Removes a subscriber from all event types.
+     *
+     * @param subscriber subscriber to be removed
+     */
+    public void unsubscribe(Subscriber subscriber) {
+        synchronized (lock) {
+            final Registration[][] updated = registrations.clone();
+
+            for (int type = 0; type < EVENT_TYPE_COUNT; type++) {
+                int count = 0;
+                for (Registration registration : updated[type]) {
+                    if (registration.subscriber != subscriber) {
+                        count++;
+                    }
+                }
+
+                final Registration[] kept = new Registration[count];
+                int i = 0;
+                for (Registration registration : updated[type]) {
+                    if (registration.subscriber != subscriber) {
+                        kept[i++] = registration;
+                    }
+                }
+
+                updated[type] = kept;
+            }
+
+            registrations = updated;
+        }
+    }
+
+    /**
+     * Publishes an event without any data.
+     *
+     * @param type one of {@code EVENT_*} constants
+     */
+    public void publish(int type) {
+        publish(type, WebSocketClientService.NO_ID, 0, null, null, null);
+    }
+
+    /**
+     * Publishes an event carrying a text.
+     *
+     * @param type one of {@code EVENT_*} constants
+     * @param text message, reason or error description
+     */
+    public void publish(int type, String text) {
+        publish(type, WebSocketClientService.NO_ID, 0, text, null, null);
+    }
+
+    /**
+     * Publishes an event. Blocks while the ring buffer is full.
+     *
+     * @param type    one of {@code EVENT_*} constants
+     * @param id      id of the related request, or {@link WebSocketClientService#NO_ID}
+     * @param latency request round trip time in milliseconds
+     * @param text    message, reason or error description
+     * @param command command of the related request
+     * @param payload additional typed data
+     */
+    public void publish(int type, int id, long latency, String text, String command,
+                        Object payload) {
+
+        enqueue(type, id, latency, text, command, payload, true);
+    }
+
+    /**
+     * Publishes an event if there is room in the ring buffer, without blocking.
+     * <p/>
+     * Meant for threads the dispatcher may be waiting for, so they can not block each other.
+     *
+     * @param type    one of {@code EVENT_*} constants
+     * @param id      id of the related request, or {@link WebSocketClientService#NO_ID}
+     * @param latency request round trip time in milliseconds
+     * @param text    message, reason or error description
+     * @param command command of the related request
+     * @param payload additional typed data
+     * @return {@code false} if the event was dropped because the ring buffer is full
+     */
+    public boolean offer(int type, int id, long latency, String text, String command,
+                         Object payload) {
+
+        return enqueue(type, id, latency, text, command, payload, false);
+    }
+
+    private boolean enqueue(int type, int id, long latency, String text, String command,
+                            Object payload, boolean isBlocking) {
+
+        // Nobody listens, skip the ring buffer entirely
+        if (registrations[type].length == 0) {
+            return true;
+        }
+
+        synchronized (lock) {
+            while (head - tail == CAPACITY) {
+                if (!isBlocking) {
+                    return false;
+                } else if (Thread.currentThread() == dispatcher) {
+                    break;
+                }
+
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while waiting for a free slot, event dropped");
+
+                    Thread.currentThread().interrupt();
+
+                    return false;
+                }
+            }
+
+            if (head - tail < CAPACITY) {
+                set(ring[(int) (head & (CAPACITY - 1))], type, id, latency, text, command,
+                        payload);
+
+                head++;
+
+                lock.notifyAll();
+
+                return true;
+            }
+        }
+
+        // Published by a subscriber while the ring buffer is full
+        final Event event = new Event();
+        set(event, type, id, latency, text, command, payload);
+
+        deliver(event, false);
+
+        return true;
+    }
+
+    private static void set(Event event, int type, int id, long latency, String text,
+                            String command, Object payload) {
+        event.type = type;
+        event.id = id;
+        event.latency = latency;
+        event.text = text;
+        event.command = command;
+        event.payload = payload;
+    }
+
+    /**
+     * Dispatcher thread loop, delivers events in order of publishing.
+     */
+    private void dispatch() {
+        while (true) {
+            final Event event;
+
+            synchronized (lock) {
+                while (head == tail) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                // Slot can not be overwritten until the tail moves past it
+                event = ring[(int) (tail & (CAPACITY - 1))];
+            }
+
+            try {
+                deliver(event, false);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Subscriber failed to handle event", e);
+            }
+
+            synchronized (lock) {
+                event.clear();
+                tail++;
+
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Delivers an event to subscribers of its type.
+     *
+     * @param event        event to be delivered
+     * @param onMainThread {@code true} to notify main thread subscribers,
+     *                     {@code false} to notify dispatcher thread subscribers
+     */
+    private void deliver(Event event, boolean onMainThread) {
+        boolean hasOtherSubscribers = false;
+
+        for (Registration registration : registrations[event.type]) {
+            if (registration.onMainThread == onMainThread) {
+                registration.subscriber.onEvent(event);
+            } else {
+                hasOtherSubscribers = true;
+            }
+        }
+
+        if (!onMainThread && hasOtherSubscribers) {
+            // Ring slot will be reused, pass a copy to the main thread
+            Event copy = mainPool.acquire();
+            if (copy == null) {
+                copy = new Event();
+            }
+
+            copy.set(event);
+
+            mainHandler.obtainMessage(0, copy).sendToTarget();
+        }
+    }
+}
@@ -16,27 +16,182 @@
 
 package com.xrpoffline;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.v7.widget.LinearLayoutManager;
-import android.support.v7.widget.OrientationHelper;
 import android.support.v7.widget.RecyclerView;
+import android.util.SparseIntArray;
+import android.view.View;
 
 /**
  * An implementation of {@code LinearLayoutManager} which provides more pre-cached space
- * to improve user experience while removing and scrolling items
+ * to improve user experience while removing and scrolling items.
+ * <p/>
+ * The space laid out past the screen follows the scroll speed: one screen while the list
+ * rests, up to the distance scrolled in {@link #LOOKAHEAD} milliseconds while it is flung,
+ * and never more screens than the memory given to the app allows. Recycled view pools are
+ * sized to the item types laid out, so views of one type scrolled out are not dropped while
+ * views of another type are bound.
  */
 public class ExtraLayoutManager extends LinearLayoutManager {
 
+    // Time, in milliseconds, the space is laid out ahead of the scroll
+    private static final long LOOKAHEAD = 250;
+
+    // Pause, in milliseconds, after which a scroll step is not part of the same gesture
+    private static final long MAX_STEP_TIME = 100;
+
+    // Weight of the latest scroll step in the average speed
+    private static final float SPEED_SMOOTHING = 0.25f;
+
+    // Screens of extra space at most, fewer if the app gets little memory
+    private static final int MAX_SCREENS = 3;
+    private static final int MAX_SCREENS_LOW_MEMORY = 1;
+
+    // Memory class of devices that give apps little memory, in megabytes
+    private static final int LOW_MEMORY_CLASS = 64;
+
+    // Views kept of an item type, RecyclerView keeps 5 by default
+    private static final int MIN_POOL_SIZE = 5;
+    private static final int MAX_POOL_SIZE = 24;
+
+    private final int maxScreens;
+
+    private RecyclerView.RecycledViewPool pool;
+
+    // Average scroll speed in pixels per millisecond, zero while the list rests
+    private float speed;
+    private long lastStepTime;
+    private int pendingDistance;
+
+    // Views laid out by item type, reused by every pool update
+    private final SparseIntArray typeCounts = new SparseIntArray();
+
     public ExtraLayoutManager(Context context) {
         super(context);
+
+        final ActivityManager manager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+
+        maxScreens = manager.getMemoryClass() <= LOW_MEMORY_CLASS ?
+                MAX_SCREENS_LOW_MEMORY : MAX_SCREENS;
     }
 
     @Override
     protected int getExtraLayoutSpace(RecyclerView.State state) {
-        final OrientationHelper helper =
-                OrientationHelper.createOrientationHelper(this, getOrientation());
+        final int totalSpace = getTotalSpace();
+
+        return Math.min(totalSpace + (int) (speed * LOOKAHEAD), totalSpace * maxScreens);
+    }
+
+    @Override
+    public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler,
+                                  RecyclerView.State state) {
+
+        updateSpeed(dy);
+
+        return super.scrollVerticallyBy(dy, recycler, state);
+    }
+
+    @Override
+    public int scrollHorizontallyBy(int dx, RecyclerView.Recycler recycler,
+                                    RecyclerView.State state) {
+
+        updateSpeed(dx);
+
+        return super.scrollHorizontallyBy(dx, recycler, state);
+    }
+
+    @Override
+    public void onScrollStateChanged(int state) {
+        super.onScrollStateChanged(state);
+
+        if (state == RecyclerView.SCROLL_STATE_IDLE) {
+            speed = 0;
+            lastStepTime = 0;
+            pendingDistance = 0;
+        }
+
+        updatePoolSizes();
+    }
+
+    @Override
+    public void onAttachedToWindow(RecyclerView view) {
+        super.onAttachedToWindow(view);
+
+        pool = view.getRecycledViewPool();
+    }
+
+    @Override
+    public void onDetachedFromWindow(RecyclerView view, RecyclerView.Recycler recycler) {
+        super.onDetachedFromWindow(view, recycler);
+
+        pool = null;
+    }
+
+    /**
+     * Adds a scroll step to the average speed. Steps made within the same millisecond,
+     * e.g. by one layout pass, are added up.
+     *
+     * @param delta distance scrolled in pixels
+     */
+    private void updateSpeed(int delta) {
+        final long time = SystemClock.uptimeMillis();
+        final long elapsed = time - lastStepTime;
+
+        pendingDistance += Math.abs(delta);
+
+        if (elapsed == 0) {
+            return;
+        }
+
+        if (elapsed <= MAX_STEP_TIME) {
+            speed += (pendingDistance / (float) elapsed - speed) * SPEED_SMOOTHING;
+        }
+
+        lastStepTime = time;
+        pendingDistance = 0;
+    }
+
+    /**
+     * Sizes the pool of each item type laid out to its share of the views that fit into
+     * the screen and the most extra space.
+     */
+    private void updatePoolSizes() {
+        final int childCount = getChildCount();
+
+        if (pool == null || childCount == 0) {
+            return;
+        }
+
+        typeCounts.clear();
+        int size = 0;
+
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+
+            final int viewType = getItemViewType(child);
+            typeCounts.put(viewType, typeCounts.get(viewType) + 1);
+
+            size += getOrientation() == VERTICAL ?
+                    getDecoratedMeasuredHeight(child) : getDecoratedMeasuredWidth(child);
+        }
+
+        // Views of the average size the largest layout holds
+        final int views = getTotalSpace() * (1 + maxScreens) / Math.max(1, size / childCount);
+
+        for (int i = 0; i < typeCounts.size(); i++) {
+            final int poolSize = (views * typeCounts.valueAt(i) + childCount - 1) / childCount;
+
+            pool.setMaxRecycledViews(typeCounts.keyAt(i),
+                    Math.max(MIN_POOL_SIZE, Math.min(poolSize, MAX_POOL_SIZE)));
+        }
+    }
 
-        // Multiply space returned
-        return helper.getTotalSpace() * 2; // Estimated value
+    private int getTotalSpace() {
+        return getOrientation() == VERTICAL ?
+                getHeight() - getPaddingTop() - getPaddingBottom() :
+                getWidth() - getPaddingLeft() - getPaddingRight();
     }
-}
\ No newline at end of file
+}
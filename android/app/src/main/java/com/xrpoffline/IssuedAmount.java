@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amount of a currency other than XRP, e.g. {@code {"currency": "USD", "issuer": "r...",
+ * "value": "1.5"}}.
+ * <p/>
+ * The value is kept exact as a decimal mantissa and exponent, like the ledger does. The ledger
+ * keeps 16 significant digits at most, further digits are dropped when parsing.
+ */
+public class IssuedAmount {
+
+    // Significant digits of issued currency values
+    private static final int MAX_DIGITS = 16;
+
+    /**
+     * Significant digits of the value, without trailing zeros.
+     */
+    public final long mantissa;
+
+    /**
+     * Power of ten the mantissa is multiplied by.
+     */
+    public final int exponent;
+
+    /**
+     * Currency code, e.g. {@code USD}.
+     */
+    public final String currency;
+
+    /**
+     * Account that issued the currency, may be {@code null}.
+     */
+    public final String issuer;
+
+    public IssuedAmount(long mantissa, int exponent, String currency, String issuer) {
+        this.mantissa = mantissa;
+        this.exponent = exponent;
+        this.currency = currency;
+        this.issuer = issuer;
+    }
+
+    /**
+     * Parses a value in decimal or scientific notation, e.g. {@code -0.25} or {@code 1e-10}.
+     *
+     * @param value    value to be parsed
+     * @param currency currency code
+     * @param issuer   issuing account, may be {@code null}
+     * @return parsed amount
+     * @throws NumberFormatException if the value is not a number
+     */
+    public static IssuedAmount parse(String value, String currency, String issuer) {
+        final int length = value.length();
+
+        int pos = 0;
+        boolean isNegative = false;
+
+        if (pos < length && (value.charAt(pos) == '-' || value.charAt(pos) == '+')) {
+            isNegative = value.charAt(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean hasDigits = false;
+        boolean isFraction = false;
+
+        for (; pos < length; pos++) {
+            final char c = value.charAt(pos);
+
+            if (c == '.' && !isFraction) {
+                isFraction = true;
+            } else if (c >= '0' && c <= '9') {
+                hasDigits = true;
+
+                if (digits < MAX_DIGITS) {
+                    if (mantissa > 0 || c != '0') {
+                        mantissa = mantissa * 10 + (c - '0');
+                        digits++;
+                    }
+
+                    if (isFraction) {
+                        exponent--;
+                    }
+                } else if (!isFraction) {
+                    // Digit dropped from the whole part still counts
+                    exponent++;
+                }
+            } else {
+                break;
+            }
+        }
+
+        if (pos < length && (value.charAt(pos) == 'e' || value.charAt(pos) == 'E')) {
+            try {
+                exponent += Integer.parseInt(value.substring(pos + 1).replace("+", ""));
+            } catch (NumberFormatException e) {
+                throw new NumberFormatException("Invalid amount: " + value);
+            }
+
+            pos = length;
+        }
+
+        if (!hasDigits || pos != length) {
+            throw new NumberFormatException("Invalid amount: " + value);
+        }
+
+        if (mantissa == 0) {
+            return new IssuedAmount(0, 0, currency, issuer);
+        }
+
+        while (mantissa % 10 == 0) {
+            mantissa /= 10;
+            exponent++;
+        }
+
+        return new IssuedAmount(isNegative ? -mantissa : mantissa, exponent, currency, issuer);
+    }
+
+    /**
+     * Formats the value rounded half up to a given number of decimal places.
+     *
+     * @param decimals number of decimal places
+     * @return value in decimal notation, e.g. {@code 1.50}
+     */
+    public String format(int decimals) {
+        return toBigDecimal().setScale(decimals, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    /**
+     * Returns the exact value in decimal notation, without an exponent.
+     *
+     * @return value, e.g. {@code 0.0000000001}
+     */
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+
+    private BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(mantissa, -exponent);
+    }
+}
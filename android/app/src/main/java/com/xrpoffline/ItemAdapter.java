@@ -16,29 +16,47 @@
 
 package com.xrpoffline;
 
+import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
-import android.provider.BaseColumns;
+import android.net.Uri;
+import android.os.Bundle;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
-import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
- * An implementation of {@code RecyclerView.Adapter} that exposes data from a {@link Cursor}.
+ * An implementation of {@code RecyclerView.Adapter} that exposes data from a {@link LogPager}.
  * <p/>
  * This adapter also manages adding, selecting and removing items in an intuitive way.
+ * <p/>
+ * Only the columns shown on collapsed cards are read with the list, see {@link #PROJECTION}.
+ * Heavy columns are read by {@link LogDetails} when a card is expanded.
  */
 public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
-        implements ItemTouchHelperAdapter, ClickableViewHolder.OnViewHolderClickListener {
+        implements ItemTouchHelperAdapter, ClickableViewHolder.OnViewHolderClickListener,
+        LogDetails.OnDetailsLoadedListener, LogPager.OnPageLoadedListener {
+
+    /**
+     * Columns read with the list, see {@link LogRow#PROJECTION}.
+     */
+    public static final String[] PROJECTION = LogRow.PROJECTION;
+
+    // Ids of rows not read yet count down from here, row ids are never negative
+    private static final long PLACEHOLDER_ID = -2;
+
+    // Keys of the selection in saved instance state
+    private static final String KEY_SELECTED_IDS = "selected_ids";
+    private static final String KEY_ALL_SELECTED = "all_selected";
 
     /**
      * Interface definition for a callback to be invoked when a touch or a gesture was performed
@@ -61,19 +79,49 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         void onItemLongClick(int position);
 
         /**
-         * Called when the item was swiped out.
+         * Called when the item was swiped out, right before it is hidden, or after items
+         * were hidden by {@link #hideSelectedItems}.
          *
-         * @param position the position of the item swiped
+         * @param position the position of the item swiped, or {@code NO_POSITION}
          */
         void onItemSwipe(int position);
     }
 
     private final Context context;
 
-    private Cursor cursor;
+    private LogPager pager;
+
+    // Row ids of selected items, they stay selected while rows come and go. Once all items
+    // are selected, row ids of the items deselected since.
+    private final LongHashSet selectedIds = new LongHashSet();
 
-    private SparseBooleanArray selectedPositions = new SparseBooleanArray();
-    private final List<Integer> hiddenPositions = new ArrayList<>();
+    // Key of the first row when all items were selected, newer rows are not selected.
+    // Rows are never read to select them, so selecting all of them costs the same for any count.
+    private boolean isAllSelected;
+    private long allSelectedTime;
+    private long allSelectedId;
+    private int allSelectedCount;
+
+    private final LogPager.RowMatcher selectionMatcher = new LogPager.RowMatcher() {
+
+        @Override
+        public boolean matches(LogRow row) {
+            return isSelected(row);
+        }
+    };
+
+    // Raw positions of hidden items, the spare set keeps them while a diff is dispatched
+    private PositionSet hiddenPositions = new PositionSet();
+    private PositionSet spareHiddenPositions = new PositionSet();
+
+    private final LogDetails details;
+
+    // Times are formatted on the main thread only, while items are bound
+    private final TimeFormatter timeFormatter =
+            new TimeFormatter(TextUtils.TEMPLATE_DATE_DEFAULT);
+    private final Set<Long> expandedIds = new HashSet<>();
+
+    private RecyclerView recyclerView;
 
     private final OnItemGestureListener onItemGestureListener;
 
@@ -81,22 +129,27 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         this(context, null, listener);
     }
 
-    public ItemAdapter(Context context, Cursor cursor, OnItemGestureListener listener) {
+    public ItemAdapter(Context context, LogPager pager, OnItemGestureListener listener) {
         this.context = context;
 
-        if (cursor != null) {
-            this.cursor = cursor;
+        if (pager != null) {
+            this.pager = pager;
+
+            pager.setOnPageLoadedListener(this);
         }
 
         onItemGestureListener = listener;
 
+        final Uri uri = Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOGS);
+        details = new LogDetails(context.getContentResolver(), uri, this);
+
         // All items in the data set have unique ROW_ID
         setHasStableIds(true);
     }
 
     @Override
     public int getItemCount() {
-        return cursor != null ? cursor.getCount() - getHiddenItemCount() : 0;
+        return pager != null ? pager.getCount() - getHiddenItemCount() : 0;
     }
 
     @Override
@@ -107,84 +160,232 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
     private long getRawItemId(int position) {
         // Include hidden items
-        return cursor != null && cursor.moveToPosition(position) ?
-                cursor.getLong(cursor.getColumnIndex(BaseColumns._ID)) : -1;
+        final LogRow row = getRow(position);
+
+        return row != null ? row.id : PLACEHOLDER_ID - position;
     }
 
     @Override
     public int getItemViewType(int position) {
-        return cursor != null && cursor.moveToPosition(adjustPosition(position)) ?
-                cursor.getInt(cursor.getColumnIndex(DatabaseHelper.TYPE)) : ItemTypes.TYPE_INVALID;
+        final LogRow row = getRow(adjustPosition(position));
+
+        return row != null ? row.type : ItemTypes.TYPE_PLACEHOLDER;
+    }
+
+    /**
+     * Returns a row of the pager, including hidden items.
+     *
+     * @param position raw position of the row
+     * @return the row, or {@code null} if it is not read yet or could not be read
+     */
+    private LogRow getRow(int position) {
+        return pager != null ? pager.getRow(position) : null;
     }
 
     /**
-     * Changes the underlying cursor to a new cursor.
+     * Changes the underlying pager to a new pager. The old pager is closed by its loader.
+     * <p/>
+     * If the new pager was compared with the current one, only the items that changed are
+     * notified, e.g. a single card is inserted for a new log. Hidden items are not notified
+     * again, those the new pager still has are carried over and stay hidden.
      *
-     * @param newCursor the new cursor to be used
+     * @param newPager the new pager to be used
      */
-    public void swapCursor(Cursor newCursor) {
-        if (cursor != null) {
-            shiftSelectedItems();
+    public void swapPager(LogPager newPager) {
+        final LogDiff diff = newPager != null ? newPager.takeDiff() : null;
+
+        if (newPager != null) {
+            newPager.setOnPageLoadedListener(this);
         }
 
-        cursor = newCursor;
+        if (diff == null || !diff.isFrom(pager) || !canDispatch(diff)) {
+            hiddenPositions.clear();
 
-        notifyDataSetChanged();
+            pager = newPager;
+
+            notifyDataSetChanged();
+
+            return;
+        }
+
+        final PositionSet oldHiddenPositions = hiddenPositions;
+        hiddenPositions = spareHiddenPositions;
+        spareHiddenPositions = oldHiddenPositions;
+
+        pager = newPager;
+
+        dispatchDiff(diff, oldHiddenPositions);
+
+        oldHiddenPositions.clear();
+    }
+
+    /**
+     * Checks whether all hidden items are among the rows compared by a diff.
+     */
+    private boolean canDispatch(LogDiff diff) {
+        return hiddenPositions.last() < diff.getOldCompared();
+    }
+
+    /**
+     * Notifies the steps of a diff as changes of adapter positions, in the list order.
+     * Hidden items still in the new pager stay hidden, e.g. their tombstones are not written
+     * yet. Undo shows them again by {@link #restoreItems}.
+     *
+     * @param diff               changes since the previous pager
+     * @param oldHiddenPositions raw positions hidden in the previous pager
+     */
+    private void dispatchDiff(LogDiff diff, PositionSet oldHiddenPositions) {
+        int position = 0;
+        int oldPosition = 0;
+
+        for (int i = 0; i < diff.getStepCount(); i++) {
+            final int step = diff.getStep(i);
+
+            final boolean wasHidden = step != LogDiff.INSERTED
+                    && oldHiddenPositions.contains(oldPosition);
+
+            switch (step) {
+                case LogDiff.KEPT:
+                case LogDiff.CHANGED: {
+                    if (wasHidden) {
+                        hiddenPositions.add(diff.getNewPosition(oldPosition));
+                    } else {
+                        if (step == LogDiff.CHANGED) {
+                            notifyItemChanged(position);
+                        }
+
+                        position++;
+                    }
+
+                    oldPosition++;
+
+                    break;
+                }
+                case LogDiff.INSERTED: {
+                    notifyItemInserted(position);
+
+                    position++;
+
+                    break;
+                }
+                case LogDiff.REMOVED: {
+                    if (!wasHidden) {
+                        notifyItemRemoved(position);
+                    }
+
+                    oldPosition++;
+
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        this.recyclerView = null;
+    }
+
+    /**
+     * Expands or collapses an item. Details of an expanded item are read in the background.
+     *
+     * @param position the position of the item toggled
+     */
+    public void toggleItemExpansion(int position) {
+        final long id = getItemId(position);
+
+        if (!expandedIds.remove(id)) {
+            expandedIds.add(id);
+
+            details.request(id);
+        }
+
+        notifyItemChanged(position);
+    }
+
+    @Override
+    public void onDetailsLoaded(long id) {
+        if (recyclerView == null || !expandedIds.contains(id)) {
+            return;
+        }
+
+        // Rebind the card only if it is still shown
+        final RecyclerView.ViewHolder holder = recyclerView.findViewHolderForItemId(id);
+        if (holder != null && holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+            notifyItemChanged(holder.getAdapterPosition());
+        }
+    }
+
+    @Override
+    public void onPageLoaded(LogPager pager, int start, int count) {
+        if (pager != this.pager) {
+            return;
+        }
+
+        // Placeholders of the page are bound again, hidden rows have no items
+        final int hiddenBefore = hiddenPositions.countBefore(start);
+        final int hiddenInPage = hiddenPositions.countBefore(start + count) - hiddenBefore;
+
+        notifyItemRangeChanged(start - hiddenBefore, count - hiddenInPage);
     }
 
     @Override
     public boolean canItemSwipe(int position) {
-        // Do not allow swiping in action mode
-        return getSelectedItemCount() == 0;
+        // Do not allow swiping in action mode, nor of items not read yet
+        return getSelectedItemCount() == 0 && getRow(adjustPosition(position)) != null;
     }
 
     @Override
     public void onItemSwipe(int position) {
-        // Hide the item on swipe gesture
-        hideItem(position);
-
+        // Listener is told first, the item is still at its position
         if (onItemGestureListener != null) {
             onItemGestureListener.onItemSwipe(position);
         }
+
+        // Hide the item on swipe gesture
+        hideItem(position);
     }
 
     /**
-     * Toggles a selection of an item.
+     * Toggles a selection of an item. Once all items are selected, items newer than
+     * the selection can not be selected.
      *
      * @param position the position of a item toggled
      */
     public void toggleItemSelection(int position) {
-        final int adjustedPosition = adjustPosition(position);
+        final LogRow row = getRow(adjustPosition(position));
+        if (row == null || (isAllSelected && isAfterAllSelected(row))) {
+            return;
+        }
 
-        if (selectedPositions.get(adjustedPosition, false)) {
-            selectedPositions.delete(adjustedPosition);
-        } else {
-            selectedPositions.put(adjustedPosition, true);
+        if (!selectedIds.remove(row.id)) {
+            selectedIds.add(row.id);
         }
 
         notifyItemChanged(position);
     }
 
     /**
-     * Selects listed items.
-     *
-     * @param positions the list of items to be selected
+     * Selects all of the items, from the first one down to the oldest. No row is read,
+     * items are deselected by exception.
      */
-    public void selectItems(List<Integer> positions) {
-        for (int position : positions) {
-            selectedPositions.put(adjustPosition(position), true);
+    public void selectAllItems() {
+        final LogRow first = getItemCount() > 0 ? getRow(adjustPosition(0)) : null;
+        if (first == null) {
+            return;
         }
 
-        notifyDataSetChanged();
-    }
+        selectedIds.clear();
 
-    /**
-     * Selects all of the items.
-     */
-    public void selectAllItems() {
-        for (int i = 0; i < getItemCount(); i++) {
-            selectedPositions.put(adjustPosition(i), true);
-        }
+        isAllSelected = true;
+        allSelectedTime = first.timeCreated;
+        allSelectedId = first.id;
+        allSelectedCount = getItemCount();
 
         notifyDataSetChanged();
     }
@@ -196,61 +397,110 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
      * @return {@code true} if the item is selected, {@code false} otherwise
      */
     public boolean isItemSelected(int position) {
-        return selectedPositions.get(position);
+        final LogRow row = getRow(adjustPosition(position));
+
+        return row != null && isSelected(row);
+    }
+
+    private boolean isSelected(LogRow row) {
+        if (isAllSelected) {
+            return !isAfterAllSelected(row) && !selectedIds.contains(row.id);
+        }
+
+        return selectedIds.contains(row.id);
+    }
+
+    /**
+     * Checks whether a row is newer than the first one when all items were selected.
+     */
+    private boolean isAfterAllSelected(LogRow row) {
+        return row.timeCreated > allSelectedTime
+                || (row.timeCreated == allSelectedTime && row.id > allSelectedId);
     }
 
     /**
-     * Returns the count of selected items.
+     * Returns the count of selected items. Once all items are selected, it is counted from
+     * the items there were then.
      *
      * @return number of items selected
      */
     public int getSelectedItemCount() {
-        return selectedPositions.size();
+        if (isAllSelected) {
+            return Math.max(0, allSelectedCount - selectedIds.size());
+        }
+
+        return selectedIds.size();
     }
 
     /**
-     * Returns a list of selected item positions.
+     * Tombstones logs of selected items. Once all items are selected, logs are tombstoned
+     * by the selection of the list instead of by their ids.
      *
-     * @return list of selected item positions
+     * @param tombstones tombstones the logs are written with
+     * @return deletion time of the logs, or {@code 0} if no log is tombstoned
      */
-    public List<Integer> getSelectedItems() {
-        final List<Integer> positions = new ArrayList<>(getSelectedItemCount());
+    public long tombstoneSelectedItems(LogTombstones tombstones) {
+        if (isAllSelected) {
+            return pager != null ? tombstones.tombstone(pager.getSelectionFrom(),
+                    pager.getSelectionArgsFrom(allSelectedTime, allSelectedId),
+                    selectedIds.toArray()) : 0;
+        }
+
+        return selectedIds.isEmpty() ? 0 : tombstones.tombstone(selectedIds.toArray());
+    }
 
-        for (int i = 0; i < getSelectedItemCount(); i++) {
-            positions.add(selectedPositions.keyAt(i));
+    /**
+     * Stores the selection in saved instance state. Its size does not depend on the count
+     * of items once all of them are selected.
+     *
+     * @param outState bundle to be written
+     */
+    public void writeSelectionTo(Bundle outState) {
+        if (getSelectedItemCount() == 0) {
+            return;
         }
 
-        return positions;
+        outState.putLongArray(KEY_SELECTED_IDS, selectedIds.toArray());
+
+        if (isAllSelected) {
+            outState.putLongArray(KEY_ALL_SELECTED,
+                    new long[]{allSelectedTime, allSelectedId, allSelectedCount});
+        }
     }
 
     /**
-     * Shifts selected item positions in regard to hidden items.
+     * Restores a selection stored by {@link #writeSelectionTo}.
+     *
+     * @param savedState bundle to be read
+     * @return {@code true} if any item is selected
      */
-    private void shiftSelectedItems() {
-        for (int i = 0; i < getSelectedItemCount(); i++) {
-            int position = selectedPositions.keyAt(i);
-            int newPosition = position;
+    public boolean readSelectionFrom(Bundle savedState) {
+        final long[] ids = savedState.getLongArray(KEY_SELECTED_IDS);
+        if (ids == null) {
+            return false;
+        }
 
-            for (int j = 0; j < position; j++) {
-                if (hiddenPositions.contains(j)) {
-                    newPosition--;
-                }
-            }
+        selectedIds.addAll(ids);
 
-            if (newPosition != position) {
-                selectedPositions.delete(position);
-                selectedPositions.put(newPosition, true);
-            }
+        final long[] allSelected = savedState.getLongArray(KEY_ALL_SELECTED);
+        if (allSelected != null) {
+            isAllSelected = true;
+            allSelectedTime = allSelected[0];
+            allSelectedId = allSelected[1];
+            allSelectedCount = (int) allSelected[2];
         }
 
-        restoreItems();
+        notifyDataSetChanged();
+
+        return getSelectedItemCount() > 0;
     }
 
     /**
      * Removes all selections.
      */
     public void clearItemSelections() {
-        selectedPositions.clear();
+        selectedIds.clear();
+        isAllSelected = false;
 
         notifyDataSetChanged();
     }
@@ -261,25 +511,18 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
      * @param position the position of an item to be hidden
      */
     public void hideItem(int position) {
-        final int adjustedPosition = adjustPosition(position);
-
-        int index = Collections.binarySearch(hiddenPositions, adjustedPosition);
-
-        hiddenPositions.add(-index - 1, adjustedPosition);
+        hiddenPositions.add(adjustPosition(position));
 
         notifyItemRemoved(position);
     }
 
     /**
-     * Hides listed items.
-     *
-     * @param positions the list of items to be hidden
+     * Hides selected items. Only items read so far are hidden, the others are gone once
+     * the list is reloaded without them.
      */
-    public void hideItems(List<Integer> positions) {
-        for (int position : positions) {
-            int index = Collections.binarySearch(hiddenPositions, position);
-
-            hiddenPositions.add(-index - 1, position);
+    public void hideSelectedItems() {
+        if (pager != null) {
+            pager.findResidentRows(selectionMatcher, hiddenPositions);
         }
 
         notifyDataSetChanged();
@@ -305,7 +548,14 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
      * @return list of hidden item positions
      */
     public List<Integer> getHiddenItems() {
-        return hiddenPositions;
+        final List<Integer> positions = new ArrayList<>(getHiddenItemCount());
+
+        for (int position = hiddenPositions.next(0); position >= 0;
+             position = hiddenPositions.next(position + 1)) {
+            positions.add(position);
+        }
+
+        return positions;
     }
 
     /**
@@ -317,22 +567,6 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         notifyDataSetChanged();
     }
 
-    /**
-     * Returns row ids for positions.
-     *
-     * @param positions positions to be included
-     * @return list of row ids
-     */
-    public List<Long> getIdsForItems(List<Integer> positions) {
-        final List<Long> ids = new ArrayList<>(positions.size());
-
-        for (int position : positions) {
-            ids.add(getRawItemId(position));
-        }
-
-        return ids;
-    }
-
     /**
      * Adjusts item position by excluding hidden items.
      *
@@ -340,26 +574,7 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
      * @return new item position in adapter
      */
     private int adjustPosition(int position) {
-        int index = Collections.binarySearch(hiddenPositions, position);
-        if (index < 0) {
-            index = -index - 1;
-        } else {
-            index++;
-        }
-
-        int newPosition;
-        int lastHiddenPosition;
-
-        do {
-            newPosition = position + index;
-            lastHiddenPosition = getHiddenItemCount() == index ?
-                    -1 : hiddenPositions.get(index);
-
-            index++;
-        }
-        while (lastHiddenPosition >= 0 && newPosition >= lastHiddenPosition);
-
-        return newPosition;
+        return hiddenPositions.getAbsent(position);
     }
 
     @Override
@@ -398,6 +613,24 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
                 return new StateViewHolder(view, this);
             }
+            case ItemTypes.TYPE_LEDGER: {
+                final View view = LayoutInflater.from(parent.getContext())
+                        .inflate(R.layout.item_ledger, parent, false);
+
+                return new LedgerViewHolder(view, this);
+            }
+            case ItemTypes.TYPE_TRUST_LINE: {
+                final View view = LayoutInflater.from(parent.getContext())
+                        .inflate(R.layout.item_trust_line, parent, false);
+
+                return new TrustLineViewHolder(view, this);
+            }
+            case ItemTypes.TYPE_PLACEHOLDER: {
+                final View view = LayoutInflater.from(parent.getContext())
+                        .inflate(R.layout.item_placeholder, parent, false);
+
+                return new PlaceholderViewHolder(view);
+            }
             default: {
                 // Should never happen
                 throw new IllegalArgumentException("Invalid item type: " + viewType);
@@ -411,18 +644,41 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         final int adjustedPosition = adjustPosition(position);
 
         // Choose what item type to bind
-        if (cursor != null && cursor.moveToPosition(adjustedPosition)) {
+        final LogRow row = getRow(adjustedPosition);
+        if (row != null) {
             if (holder instanceof InfoViewHolder)
-                onBindInfoViewHolder((InfoViewHolder) holder, adjustedPosition);
+                onBindInfoViewHolder((InfoViewHolder) holder, row);
             else if (holder instanceof TransactionViewHolder)
-                onBindTransactionViewHolder((TransactionViewHolder) holder, adjustedPosition);
+                onBindTransactionViewHolder((TransactionViewHolder) holder, row);
             else if (holder instanceof StateViewHolder)
-                onBindStateViewHolder((StateViewHolder) holder, adjustedPosition);
+                onBindStateViewHolder((StateViewHolder) holder, row);
+            else if (holder instanceof LedgerViewHolder)
+                onBindLedgerViewHolder((LedgerViewHolder) holder, row);
+            else if (holder instanceof TrustLineViewHolder)
+                onBindTrustLineViewHolder((TrustLineViewHolder) holder, row);
         }
     }
 
-    private void onBindInfoViewHolder(InfoViewHolder holder, int position) {
-        final boolean isSelected = isItemSelected(position);
+    private void onBindInfoViewHolder(InfoViewHolder holder, LogRow row) {
+        final boolean isSelected = isSelected(row);
+
+        holder.card.setCardBackgroundColor(ContextCompat.getColor(context, isSelected ?
+                R.color.selection : R.color.white));
+
+        holder.header.setBackgroundColor(ContextCompat.getColor(context, isSelected ?
+                R.color.selection_dark : R.color.primary_light));
+
+        bindTime(holder.time, holder.timeText, row.timeCreated);
+
+        holder.account.setText(row.account);
+
+        bindDrops(holder.balance, holder.balanceText, row.balance, 2);
+
+        holder.sequence.setText(row.sequence);
+    }
+
+    private void onBindTransactionViewHolder(TransactionViewHolder holder, LogRow row) {
+        final boolean isSelected = isSelected(row);
 
         holder.card.setCardBackgroundColor(ContextCompat.getColor(context, isSelected ?
                 R.color.selection : R.color.white));
@@ -430,21 +686,28 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         holder.header.setBackgroundColor(ContextCompat.getColor(context, isSelected ?
                 R.color.selection_dark : R.color.primary_light));
 
-        holder.time.setText(TextUtils.getTimeString(context.getApplicationContext(),
-                cursor.getLong(cursor.getColumnIndex(DatabaseHelper.TIME_CREATED))));
+        bindTime(holder.time, holder.timeText, row.timeCreated);
 
-        holder.account.setText(cursor
-                .getString(cursor.getColumnIndex(DatabaseHelper.ACCOUNT)));
+        holder.account.setText(row.account);
 
-        holder.balance.setText(String.format("%.2f", cursor
-                .getDouble(cursor.getColumnIndex(DatabaseHelper.BALANCE)) / 1000000));
+        holder.destination.setText(row.destination);
 
-        holder.sequence.setText(cursor
-                .getString(cursor.getColumnIndex(DatabaseHelper.SEQUENCE)));
+        // Amounts of other currencies than XRP are not given in drops
+        if (row.hasAmount) {
+            bindDrops(holder.amount, holder.amountText, row.amount, 2);
+        } else {
+            holder.amount.setText(formatIssuedAmount(row));
+        }
+
+        bindDrops(holder.fee, holder.feeText, row.fee, 6);
+
+        holder.sequence.setText(row.sequence);
+
+        bindMessage(holder.message, row);
     }
 
-    private void onBindTransactionViewHolder(TransactionViewHolder holder, int position) {
-        final boolean isSelected = isItemSelected(position);
+    private void onBindStateViewHolder(StateViewHolder holder, LogRow row) {
+        final boolean isSelected = isSelected(row);
 
         holder.card.setCardBackgroundColor(ContextCompat.getColor(context, isSelected ?
                 R.color.selection : R.color.white));
@@ -452,30 +715,35 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         holder.header.setBackgroundColor(ContextCompat.getColor(context, isSelected ?
                 R.color.selection_dark : R.color.primary_light));
 
-        holder.time.setText(TextUtils.getTimeString(context.getApplicationContext(),
-                cursor.getLong(cursor.getColumnIndex(DatabaseHelper.TIME_CREATED))));
+        bindTime(holder.time, holder.timeText, row.timeCreated);
 
-        holder.account.setText(cursor
-                .getString(cursor.getColumnIndex(DatabaseHelper.ACCOUNT)));
+        // Fee replies do not report peers
+        holder.peers.setVisibility(row.peers == null ? View.GONE : View.VISIBLE);
+        holder.peers.setText(row.peers);
 
-        holder.destination.setText(cursor
-                .getString(cursor.getColumnIndex(DatabaseHelper.DESTINATION)));
+        bindDrops(holder.fee, holder.feeText, row.fee, 6);
+    }
 
-        holder.amount.setText(String.format("%.2f", cursor
-                .getDouble(cursor.getColumnIndex(DatabaseHelper.AMOUNT)) / 1000000));
+    private void onBindLedgerViewHolder(LedgerViewHolder holder, LogRow row) {
+        final boolean isSelected = isSelected(row);
 
-        holder.fee.setText(String.format("%.6f", cursor
-                .getDouble(cursor.getColumnIndex(DatabaseHelper.FEE)) / 1000000));
+        holder.card.setCardBackgroundColor(ContextCompat.getColor(context, isSelected ?
+                R.color.selection : R.color.white));
 
-        holder.sequence.setText(cursor
-                .getString(cursor.getColumnIndex(DatabaseHelper.SEQUENCE)));
+        holder.header.setBackgroundColor(ContextCompat.getColor(context, isSelected ?
+                R.color.selection_dark : R.color.primary_light));
+
+        bindTime(holder.time, holder.timeText, row.timeCreated);
+
+        holder.sequence.setText(row.ledgerIndex);
 
-        holder.message.setText(cursor
-                .getString(cursor.getColumnIndex(DatabaseHelper.MESSAGE)));
+        holder.hash.setText(row.hash);
+
+        bindMessage(holder.message, row);
     }
 
-    private void onBindStateViewHolder(StateViewHolder holder, int position) {
-        final boolean isSelected = isItemSelected(position);
+    private void onBindTrustLineViewHolder(TrustLineViewHolder holder, LogRow row) {
+        final boolean isSelected = isSelected(row);
 
         holder.card.setCardBackgroundColor(ContextCompat.getColor(context, isSelected ?
                 R.color.selection : R.color.white));
@@ -483,14 +751,82 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         holder.header.setBackgroundColor(ContextCompat.getColor(context, isSelected ?
                 R.color.selection_dark : R.color.primary_light));
 
-        holder.time.setText(TextUtils.getTimeString(context.getApplicationContext(),
-                cursor.getLong(cursor.getColumnIndex(DatabaseHelper.TIME_CREATED))));
+        bindTime(holder.time, holder.timeText, row.timeCreated);
+
+        holder.account.setText(row.account);
+
+        holder.destination.setText(row.destination);
+
+        // Trust line balances are given in the issued currency, not in drops
+        holder.balance.setText(formatIssuedAmount(row));
+    }
 
-        holder.peers.setText(cursor
-                .getString(cursor.getColumnIndex(DatabaseHelper.PEERS)));
+    /**
+     * Shows a time, see {@link TimeFormatter}.
+     *
+     * @param view   view to show the time in
+     * @param buffer text buffer of the view, it must not be shown by another view
+     * @param time   time since epoch in milliseconds
+     */
+    private void bindTime(TextView view, char[] buffer, long time) {
+        final Locale locale = context.getResources().getConfiguration().locale;
 
-        holder.fee.setText(String.format("%.6f", cursor
-                .getDouble(cursor.getColumnIndex(DatabaseHelper.FEE)) / 1000000));
+        view.setText(buffer, 0, timeFormatter.format(locale, time, buffer));
+    }
+
+    /**
+     * Shows an amount of XRP, see {@link Drops#format(long, int, char[])}.
+     *
+     * @param view     view to show the amount in
+     * @param buffer   text buffer of the view, it must not be shown by another view
+     * @param drops    amount in drops
+     * @param decimals number of decimal places
+     */
+    private static void bindDrops(TextView view, char[] buffer, long drops, int decimals) {
+        view.setText(buffer, 0, Drops.format(drops, decimals, buffer));
+    }
+
+    /**
+     * Formats the issued currency amount of a row, e.g. {@code 1.50 USD}.
+     *
+     * @param row row to be formatted
+     * @return amount and currency code, or an empty string if the row has no amount
+     */
+    private static String formatIssuedAmount(LogRow row) {
+        final String value = row.issuedValue;
+        final String currency = row.currency;
+
+        if (value == null) {
+            return "";
+        }
+
+        try {
+            return IssuedAmount.parse(value, currency, null).format(2) + " " + currency;
+        } catch (NumberFormatException e) {
+            // Shown as stored rather than not at all
+            return value + " " + currency;
+        }
+    }
+
+    /**
+     * Shows the message of a row if its card is expanded.
+     *
+     * @param view view to show the message in
+     * @param row  row being bound
+     */
+    private void bindMessage(TextView view, LogRow row) {
+        final long id = row.id;
+
+        if (!expandedIds.contains(id)) {
+            view.setVisibility(View.GONE);
+
+            return;
+        }
+
+        // Empty until the details are read
+        final ContentValues values = details.get(id);
+        view.setText(values != null ? values.getAsString(DatabaseHelper.MESSAGE) : null);
+        view.setVisibility(View.VISIBLE);
     }
 
     /**
@@ -501,6 +837,10 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         public final CardView card;
         public final TextView header, time, account, balance, sequence;
 
+        // Text buffers, each one is kept by the view it is shown in
+        final char[] timeText = new char[TimeFormatter.MAX_LENGTH];
+        final char[] balanceText = new char[Drops.MAX_LENGTH];
+
         public InfoViewHolder(View view, OnViewHolderClickListener listener) {
             super(view, listener);
 
@@ -523,6 +863,11 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         public final CardView card;
         public final TextView header, time, account, destination, amount, fee, sequence, message;
 
+        // Text buffers, each one is kept by the view it is shown in
+        final char[] timeText = new char[TimeFormatter.MAX_LENGTH];
+        final char[] amountText = new char[Drops.MAX_LENGTH];
+        final char[] feeText = new char[Drops.MAX_LENGTH];
+
         public TransactionViewHolder(View view, OnViewHolderClickListener listener) {
             super(view, listener);
 
@@ -548,6 +893,10 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         public final CardView card;
         public final TextView header, time, peers, fee;
 
+        // Text buffers, each one is kept by the view it is shown in
+        final char[] timeText = new char[TimeFormatter.MAX_LENGTH];
+        final char[] feeText = new char[Drops.MAX_LENGTH];
+
         public StateViewHolder(View view, OnViewHolderClickListener listener) {
             super(view, listener);
 
@@ -560,4 +909,64 @@ public class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             fee = (TextView) view.findViewById(R.id.item_fee);
         }
     }
+
+    /**
+     * A ViewHolder that describes an item of type: Ledger.
+     */
+    public static class LedgerViewHolder extends ClickableViewHolder {
+
+        public final CardView card;
+        public final TextView header, time, sequence, hash, message;
+
+        // Text buffers, each one is kept by the view it is shown in
+        final char[] timeText = new char[TimeFormatter.MAX_LENGTH];
+
+        public LedgerViewHolder(View view, OnViewHolderClickListener listener) {
+            super(view, listener);
+
+            card = (CardView) view.findViewById(R.id.item_card);
+
+            header = (TextView) view.findViewById(R.id.item_header);
+
+            time = (TextView) view.findViewById(R.id.item_time);
+            sequence = (TextView) view.findViewById(R.id.item_sequence);
+            hash = (TextView) view.findViewById(R.id.item_hash);
+            message = (TextView) view.findViewById(R.id.item_message);
+        }
+    }
+
+    /**
+     * A ViewHolder that describes an item of type: Trust line.
+     */
+    public static class TrustLineViewHolder extends ClickableViewHolder {
+
+        public final CardView card;
+        public final TextView header, time, account, destination, balance;
+
+        // Text buffers, each one is kept by the view it is shown in
+        final char[] timeText = new char[TimeFormatter.MAX_LENGTH];
+
+        public TrustLineViewHolder(View view, OnViewHolderClickListener listener) {
+            super(view, listener);
+
+            card = (CardView) view.findViewById(R.id.item_card);
+
+            header = (TextView) view.findViewById(R.id.item_header);
+
+            time = (TextView) view.findViewById(R.id.item_time);
+            account = (TextView) view.findViewById(R.id.item_account);
+            destination = (TextView) view.findViewById(R.id.item_destination);
+            balance = (TextView) view.findViewById(R.id.item_balance);
+        }
+    }
+
+    /**
+     * A ViewHolder that stands in for an item whose row is not read yet.
+     */
+    public static class PlaceholderViewHolder extends RecyclerView.ViewHolder {
+
+        public PlaceholderViewHolder(View view) {
+            super(view);
+        }
+    }
 }
\ No newline at end of file
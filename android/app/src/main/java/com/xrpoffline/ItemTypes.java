@@ -23,5 +23,8 @@ public interface ItemTypes {
     int TYPE_INFO = 0;
     int TYPE_TRANSACTION = 1;
     int TYPE_STATE = 2;
+    int TYPE_LEDGER = 3;
+    int TYPE_TRUST_LINE = 4;
     int TYPE_INVALID = -1;
+    int TYPE_PLACEHOLDER = -2;
 }
\ No newline at end of file
@@ -0,0 +1,652 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import org.json.JSONException;
+
+/**
+ * Pull parser that reads JSON text token by token, without building an object tree.
+ * <p/>
+ * Names can be matched against a table of expected names in place and unwanted values
+ * are skipped, so only the values actually read are allocated.
+ */
+public class JsonTokenizer {
+
+    // Token types
+    public static final int TOKEN_BEGIN_OBJECT = 0;
+    public static final int TOKEN_END_OBJECT = 1;
+    public static final int TOKEN_BEGIN_ARRAY = 2;
+    public static final int TOKEN_END_ARRAY = 3;
+    public static final int TOKEN_NAME = 4;
+    public static final int TOKEN_STRING = 5;
+    public static final int TOKEN_NUMBER = 6;
+    public static final int TOKEN_BOOLEAN = 7;
+    public static final int TOKEN_NULL = 8;
+    public static final int TOKEN_END_DOCUMENT = 9;
+
+    /**
+     * Returned by {@link #nextName(String[])} when the name is not in the table.
+     */
+    public static final int NAME_UNKNOWN = -1;
+
+    private static final int TOKEN_NONE = -1;
+
+    // Scopes kept on the nesting stack
+    private static final int SCOPE_EMPTY_DOCUMENT = 0;
+    private static final int SCOPE_NONEMPTY_DOCUMENT = 1;
+    private static final int SCOPE_EMPTY_ARRAY = 2;
+    private static final int SCOPE_NONEMPTY_ARRAY = 3;
+    private static final int SCOPE_EMPTY_OBJECT = 4;
+    private static final int SCOPE_NONEMPTY_OBJECT = 5;
+    private static final int SCOPE_DANGLING_NAME = 6;
+
+    private final String text;
+    private final int length;
+
+    private int pos;
+
+    private int[] stack = new int[16];
+    private int depth;
+
+    // Token found by the last peek, its text starts at pos
+    private int peeked = TOKEN_NONE;
+    private int peekedLength;
+
+    /**
+     * Creates a new tokenizer.
+     *
+     * @param text JSON text to be read
+     */
+    public JsonTokenizer(String text) {
+        this.text = text;
+        length = text.length();
+
+        stack[depth++] = SCOPE_EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     *
+     * @return one of {@code TOKEN_*} constants
+     * @throws JSONException if the text is malformed
+     */
+    public int peek() throws JSONException {
+        if (peeked == TOKEN_NONE) {
+            peeked = doPeek();
+        }
+
+        return peeked;
+    }
+
+    /**
+     * Checks if the current object or array has more elements.
+     *
+     * @return {@code true} if there is another name or value to read
+     * @throws JSONException if the text is malformed
+     */
+    public boolean hasNext() throws JSONException {
+        final int token = peek();
+
+        return token != TOKEN_END_OBJECT && token != TOKEN_END_ARRAY
+                && token != TOKEN_END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the beginning of an object.
+     *
+     * @throws JSONException if the next token is not the beginning of an object
+     */
+    public void beginObject() throws JSONException {
+        expect(TOKEN_BEGIN_OBJECT);
+        push(SCOPE_EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the end of the current object.
+     *
+     * @throws JSONException if the next token is not the end of an object
+     */
+    public void endObject() throws JSONException {
+        expect(TOKEN_END_OBJECT);
+        depth--;
+    }
+
+    /**
+     * Consumes the beginning of an array.
+     *
+     * @throws JSONException if the next token is not the beginning of an array
+     */
+    public void beginArray() throws JSONException {
+        expect(TOKEN_BEGIN_ARRAY);
+        push(SCOPE_EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the end of the current array.
+     *
+     * @throws JSONException if the next token is not the end of an array
+     */
+    public void endArray() throws JSONException {
+        expect(TOKEN_END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Consumes the next name.
+     *
+     * @return property name
+     * @throws JSONException if the next token is not a name
+     */
+    public String nextName() throws JSONException {
+        expect(TOKEN_NAME);
+
+        return readString();
+    }
+
+    /**
+     * Consumes the next name and looks it up in a table, without allocating it.
+     *
+     * @param names table of expected names
+     * @return index of the name in the table, or {@link #NAME_UNKNOWN}
+     * @throws JSONException if the next token is not a name
+     */
+    public int nextName(String[] names) throws JSONException {
+        expect(TOKEN_NAME);
+
+        final int end = findStringEnd();
+        if (end < 0) {
+            // Escaped name, decode it first
+            final String name = readString();
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+
+            return NAME_UNKNOWN;
+        }
+
+        final int start = pos;
+        pos = end + 1;
+
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            if (name.length() == end - start && text.regionMatches(start, name, 0, name.length())) {
+                return i;
+            }
+        }
+
+        return NAME_UNKNOWN;
+    }
+
+    /**
+     * Consumes the next string value. Numbers are returned as they appear in the text.
+     *
+     * @return string value
+     * @throws JSONException if the next token is neither a string nor a number
+     */
+    public String nextString() throws JSONException {
+        final int token = peek();
+
+        if (token == TOKEN_STRING) {
+            peeked = TOKEN_NONE;
+
+            return readString();
+        } else if (token == TOKEN_NUMBER) {
+            peeked = TOKEN_NONE;
+            pos += peekedLength;
+
+            return text.substring(pos - peekedLength, pos);
+        }
+
+        throw syntaxError("Expected a string");
+    }
+
+    /**
+     * Consumes the next integer value. Quoted numbers are accepted as well.
+     *
+     * @return long value
+     * @throws JSONException if the next token is not an integer
+     */
+    public long nextLong() throws JSONException {
+        final int token = peek();
+
+        if (token == TOKEN_NUMBER) {
+            peeked = TOKEN_NONE;
+
+            final int start = pos;
+            pos += peekedLength;
+
+            return parseLong(start, pos);
+        } else if (token == TOKEN_STRING) {
+            final int end = findStringEnd();
+            if (end >= 0) {
+                peeked = TOKEN_NONE;
+
+                final int start = pos;
+                pos = end + 1;
+
+                return parseLong(start, end);
+            }
+        }
+
+        throw syntaxError("Expected an integer");
+    }
+
+    /**
+     * Consumes the next integer value that fits into {@code int}.
+     *
+     * @return int value
+     * @throws JSONException if the next token is not an integer or it is out of range
+     */
+    public int nextInt() throws JSONException {
+        final long value = nextLong();
+        if ((int) value != value) {
+            throw syntaxError("Integer out of range");
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * Consumes the next numeric value. Quoted numbers are accepted as well.
+     *
+     * @return double value
+     * @throws JSONException if the next token is not a number
+     */
+    public double nextDouble() throws JSONException {
+        final String value = nextString();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number");
+        }
+    }
+
+    /**
+     * Skips the next value, including all nested objects and arrays.
+     *
+     * @throws JSONException if the text is malformed
+     */
+    public void skipValue() throws JSONException {
+        int count = 0;
+
+        do {
+            switch (peek()) {
+                case TOKEN_BEGIN_OBJECT: {
+                    push(SCOPE_EMPTY_OBJECT);
+                    count++;
+
+                    break;
+                }
+                case TOKEN_BEGIN_ARRAY: {
+                    push(SCOPE_EMPTY_ARRAY);
+                    count++;
+
+                    break;
+                }
+                case TOKEN_END_OBJECT:
+                case TOKEN_END_ARRAY: {
+                    if (count == 0) {
+                        throw syntaxError("Expected a value");
+                    }
+
+                    depth--;
+                    count--;
+
+                    break;
+                }
+                case TOKEN_NAME:
+                case TOKEN_STRING: {
+                    skipString();
+
+                    break;
+                }
+                case TOKEN_END_DOCUMENT: {
+                    throw syntaxError("Unexpected end of input");
+                }
+                default: {
+                    // Numbers and literals
+                    pos += peekedLength;
+
+                    break;
+                }
+            }
+
+            peeked = TOKEN_NONE;
+        } while (count != 0);
+    }
+
+    private void expect(int token) throws JSONException {
+        if (peek() != token) {
+            throw syntaxError("Unexpected token");
+        }
+
+        peeked = TOKEN_NONE;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            final int[] grown = new int[depth * 2];
+            System.arraycopy(stack, 0, grown, 0, depth);
+            stack = grown;
+        }
+
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Consumes separators around the next token and finds its type.
+     */
+    private int doPeek() throws JSONException {
+        final int scope = stack[depth - 1];
+
+        switch (scope) {
+            case SCOPE_EMPTY_ARRAY: {
+                stack[depth - 1] = SCOPE_NONEMPTY_ARRAY;
+
+                break;
+            }
+            case SCOPE_NONEMPTY_ARRAY: {
+                final int c = nextNonWhitespace();
+                if (c == ']') {
+                    return TOKEN_END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+
+                break;
+            }
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_NONEMPTY_OBJECT: {
+                stack[depth - 1] = SCOPE_DANGLING_NAME;
+
+                if (scope == SCOPE_NONEMPTY_OBJECT) {
+                    final int c = nextNonWhitespace();
+                    if (c == '}') {
+                        return TOKEN_END_OBJECT;
+                    } else if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                }
+
+                final int c = nextNonWhitespace();
+                if (c == '"') {
+                    return TOKEN_NAME;
+                } else if (c == '}' && scope == SCOPE_EMPTY_OBJECT) {
+                    return TOKEN_END_OBJECT;
+                }
+
+                throw syntaxError("Expected a name");
+            }
+            case SCOPE_DANGLING_NAME: {
+                stack[depth - 1] = SCOPE_NONEMPTY_OBJECT;
+
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+
+                break;
+            }
+            case SCOPE_EMPTY_DOCUMENT: {
+                stack[depth - 1] = SCOPE_NONEMPTY_DOCUMENT;
+
+                break;
+            }
+            case SCOPE_NONEMPTY_DOCUMENT: {
+                if (nextNonWhitespace() == -1) {
+                    return TOKEN_END_DOCUMENT;
+                }
+
+                throw syntaxError("Expected end of input");
+            }
+        }
+
+        final int c = nextNonWhitespace();
+        switch (c) {
+            case '{': {
+                return TOKEN_BEGIN_OBJECT;
+            }
+            case '[': {
+                return TOKEN_BEGIN_ARRAY;
+            }
+            case ']': {
+                if (scope == SCOPE_EMPTY_ARRAY) {
+                    return TOKEN_END_ARRAY;
+                }
+
+                throw syntaxError("Expected a value");
+            }
+            case '"': {
+                return TOKEN_STRING;
+            }
+            case 't': {
+                return peekLiteral("true", TOKEN_BOOLEAN);
+            }
+            case 'f': {
+                return peekLiteral("false", TOKEN_BOOLEAN);
+            }
+            case 'n': {
+                return peekLiteral("null", TOKEN_NULL);
+            }
+            case -1: {
+                throw syntaxError("Unexpected end of input");
+            }
+        }
+
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            pos--;
+
+            int end = pos + 1;
+            while (end < length && isNumberPart(text.charAt(end))) {
+                end++;
+            }
+
+            peekedLength = end - pos;
+
+            return TOKEN_NUMBER;
+        }
+
+        throw syntaxError("Expected a value");
+    }
+
+    private int peekLiteral(String literal, int token) throws JSONException {
+        pos--;
+
+        if (!text.startsWith(literal, pos)) {
+            throw syntaxError("Expected a value");
+        }
+
+        peekedLength = literal.length();
+
+        return token;
+    }
+
+    private static boolean isNumberPart(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e'
+                || c == 'E';
+    }
+
+    /**
+     * Returns the next character that is not a whitespace and moves past it.
+     *
+     * @return character, or -1 at the end of input
+     */
+    private int nextNonWhitespace() {
+        while (pos < length) {
+            final char c = text.charAt(pos++);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the closing quote of the string that starts at the current position.
+     *
+     * @return index of the closing quote, or -1 if the string contains escapes
+     * @throws JSONException if the string is not terminated
+     */
+    private int findStringEnd() throws JSONException {
+        for (int i = pos; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c == '"') {
+                return i;
+            } else if (c == '\\') {
+                return -1;
+            }
+        }
+
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipString() throws JSONException {
+        while (pos < length) {
+            final char c = text.charAt(pos++);
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                pos++;
+            }
+        }
+
+        throw syntaxError("Unterminated string");
+    }
+
+    private String readString() throws JSONException {
+        final int end = findStringEnd();
+        if (end >= 0) {
+            final String value = text.substring(pos, end);
+            pos = end + 1;
+
+            return value;
+        }
+
+        final StringBuilder builder = new StringBuilder();
+
+        while (pos < length) {
+            final char c = text.charAt(pos++);
+            if (c == '"') {
+                return builder.toString();
+            } else if (c != '\\') {
+                builder.append(c);
+            } else if (pos < length) {
+                final char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'b': {
+                        builder.append('\b');
+
+                        break;
+                    }
+                    case 'f': {
+                        builder.append('\f');
+
+                        break;
+                    }
+                    case 'n': {
+                        builder.append('\n');
+
+                        break;
+                    }
+                    case 'r': {
+                        builder.append('\r');
+
+                        break;
+                    }
+                    case 't': {
+                        builder.append('\t');
+
+                        break;
+                    }
+                    case 'u': {
+                        if (pos + 4 > length) {
+                            throw syntaxError("Unterminated escape sequence");
+                        }
+
+                        try {
+                            builder.append((char) Integer.parseInt(
+                                    text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw syntaxError("Invalid escape sequence");
+                        }
+
+                        pos += 4;
+
+                        break;
+                    }
+                    default: {
+                        // Quote, backslash and slash stand for themselves
+                        builder.append(escaped);
+
+                        break;
+                    }
+                }
+            }
+        }
+
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Parses an integer in place.
+     *
+     * @param start index of the first character
+     * @param end   index after the last character
+     * @return parsed value
+     * @throws JSONException if the text is not an integer or it is out of range
+     */
+    private long parseLong(int start, int end) throws JSONException {
+        final boolean isNegative = start < end && text.charAt(start) == '-';
+        int i = isNegative ? start + 1 : start;
+
+        if (i == end) {
+            throw syntaxError("Expected an integer");
+        }
+
+        // Accumulate negatively, the negative range is larger by one
+        long value = 0;
+        for (; i < end; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw syntaxError("Expected an integer");
+            }
+
+            final int digit = c - '0';
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw syntaxError("Integer out of range");
+            }
+
+            value = value * 10 - digit;
+        }
+
+        if (!isNegative) {
+            if (value == Long.MIN_VALUE) {
+                throw syntaxError("Integer out of range");
+            }
+
+            value = -value;
+        }
+
+        return value;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + pos);
+    }
+}
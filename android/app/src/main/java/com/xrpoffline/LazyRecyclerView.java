@@ -17,14 +17,52 @@
 package com.xrpoffline;
 
 import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 
+import java.util.ArrayDeque;
+import java.util.Queue;
+
 /**
  * An implementation of {@code RecyclerView} that fixes an "unwanted fling" issue.
+ * <p/>
+ * View holders can be created ahead of time, see {@link #preinflate}, so the first fling
+ * takes them from the pool instead of inflating layouts mid-frame.
  */
 public class LazyRecyclerView extends RecyclerView {
 
+    // Item types of view holders still to be created, one entry per view holder
+    private final Queue<Integer> pendingViewTypes = new ArrayDeque<>();
+
+    private boolean isPreinflating;
+
+    private final MessageQueue.IdleHandler preinflater = new MessageQueue.IdleHandler() {
+
+        @Override
+        public boolean queueIdle() {
+            final Adapter adapter = getAdapter();
+
+            if (adapter == null || pendingViewTypes.isEmpty()) {
+                pendingViewTypes.clear();
+                isPreinflating = false;
+
+                return false;
+            }
+
+            // One view holder at a time, frames drawn in between are not held up
+            final ViewHolder holder =
+                    adapter.createViewHolder(LazyRecyclerView.this, pendingViewTypes.poll());
+
+            getRecycledViewPool().putRecycledView(holder);
+
+            isPreinflating = !pendingViewTypes.isEmpty();
+
+            return isPreinflating;
+        }
+    };
+
     public LazyRecyclerView(Context context) {
         this(context, null);
     }
@@ -37,6 +75,37 @@ public class LazyRecyclerView extends RecyclerView {
         super(context, attrs, defStyle);
     }
 
+    /**
+     * Creates view holders of an item type while the main thread is idle, and keeps them
+     * in the recycled view pool. Must be called after the adapter is set.
+     *
+     * @param viewType item type of the view holders
+     * @param count    number of view holders, the pool keeps 5 of a type by default
+     */
+    public void preinflate(int viewType, int count) {
+        for (int i = 0; i < count; i++) {
+            pendingViewTypes.add(viewType);
+        }
+
+        if (!isPreinflating && !pendingViewTypes.isEmpty()) {
+            isPreinflating = true;
+
+            Looper.myQueue().addIdleHandler(preinflater);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        if (isPreinflating) {
+            Looper.myQueue().removeIdleHandler(preinflater);
+
+            pendingViewTypes.clear();
+            isPreinflating = false;
+        }
+    }
+
     @Override
     public int getMinFlingVelocity() {
         // Multiply velocity returned
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Cache of log columns that are too heavy to be read for every row of the list.
+ * <p/>
+ * Details are read by row id on a background thread, only when a card asks for them,
+ * and the most recently used ones are kept in memory.
+ */
+public class LogDetails {
+
+    private static final String TAG = LogDetails.class.getName();
+
+    /**
+     * Columns read on demand instead of with the list.
+     */
+    public static final String[] COLUMNS = new String[]{DatabaseHelper.MESSAGE};
+
+    // Number of rows whose details are kept in memory
+    private static final int CACHE_SIZE = 32;
+
+    private static final ExecutorService reader =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    /**
+     * Interface definition for a callback to be invoked when details of a row were read.
+     */
+    public interface OnDetailsLoadedListener {
+
+        /**
+         * Called on the main thread when details of a row are available.
+         *
+         * @param id row id of the log
+         */
+        void onDetailsLoaded(long id);
+    }
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final OnDetailsLoadedListener listener;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final LruCache<Long, ContentValues> cache = new LruCache<>(CACHE_SIZE);
+    private final Set<Long> pendingIds = new HashSet<>();
+
+    /**
+     * Creates a new cache of details.
+     *
+     * @param resolver resolver used to query the logs
+     * @param uri      content Uri of the logs table
+     * @param listener callback notified when requested details were read
+     */
+    public LogDetails(ContentResolver resolver, Uri uri, OnDetailsLoadedListener listener) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns details of a row if they were read already.
+     *
+     * @param id row id of the log
+     * @return values of {@link #COLUMNS}, or {@code null} if they are not in memory
+     */
+    public ContentValues get(long id) {
+        return cache.get(id);
+    }
+
+    /**
+     * Reads details of a row in the background, unless they are in memory or being read.
+     * Must be called on the main thread.
+     *
+     * @param id row id of the log
+     */
+    public void request(final long id) {
+        if (cache.get(id) != null || !pendingIds.add(id)) {
+            return;
+        }
+
+        reader.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final ContentValues values = read(id);
+
+                handler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        pendingIds.remove(id);
+
+                        if (values != null) {
+                            cache.put(id, values);
+
+                            listener.onDetailsLoaded(id);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private ContentValues read(long id) {
+        final Cursor cursor;
+        try {
+            cursor = resolver.query(Uri.withAppendedPath(uri, String.valueOf(id)), COLUMNS,
+                    null, null, null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not read details of log " + id, e);
+
+            return null;
+        }
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+
+            final ContentValues values = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(cursor, values);
+
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+/**
+ * Changes between the first pages of two pagers over the same logs, rows matched by id.
+ * <p/>
+ * Both pages are sorted by the same key, so a single merge of the two matches the rows in
+ * linear time. Rows past the end of either page are not compared, they are taken for the
+ * same rows, shifted by the rows inserted and removed before them. A diff is only made if
+ * that accounts for the change of the row count, which holds when logs stream in on top
+ * of the list or are deleted from its first page.
+ */
+public class LogDiff {
+
+    /**
+     * Step of a row found in both pages, with the same content.
+     */
+    public static final int KEPT = 0;
+
+    /**
+     * Step of a row found in both pages, with a changed content.
+     */
+    public static final int CHANGED = 1;
+
+    /**
+     * Step of a row found only in the new page.
+     */
+    public static final int INSERTED = 2;
+
+    /**
+     * Step of a row found only in the old page.
+     */
+    public static final int REMOVED = 3;
+
+    private final LogPager oldPager;
+
+    // Steps in the list order, from the first row on
+    private final int[] steps;
+    private final int stepCount;
+
+    // New positions of the old rows compared, -1 for removed rows
+    private final int[] newPositions;
+
+    // Difference between new and old positions of rows past the compared ones
+    private final int shift;
+
+    private LogDiff(LogPager oldPager, int[] steps, int stepCount, int[] newPositions,
+                    int shift) {
+
+        this.oldPager = oldPager;
+        this.steps = steps;
+        this.stepCount = stepCount;
+        this.newPositions = newPositions;
+        this.shift = shift;
+    }
+
+    /**
+     * Compares the first pages of two pagers.
+     *
+     * @param oldPager pager replaced
+     * @param oldRows  rows of the first page of the replaced pager, may be {@code null}
+     * @param oldCount number of rows of the replaced pager
+     * @param newRows  rows of the first page of the new pager, may be {@code null}
+     * @param newCount number of rows of the new pager
+     * @return changes, or {@code null} if the pages can not be compared
+     */
+    static LogDiff compute(LogPager oldPager, LogRow[] oldRows, int oldCount, LogRow[] newRows,
+                           int newCount) {
+
+        if (oldRows == null || newRows == null) {
+            return null;
+        }
+
+        final int[] steps = new int[oldRows.length + newRows.length];
+        final int[] newPositions = new int[oldRows.length];
+
+        int stepCount = 0;
+        int i = 0, j = 0;
+
+        while (i < oldRows.length && j < newRows.length) {
+            if (oldRows[i].id == newRows[j].id) {
+                steps[stepCount++] = oldRows[i].isSameContent(newRows[j]) ? KEPT : CHANGED;
+                newPositions[i++] = j++;
+            } else if (newRows[j].isBefore(oldRows[i])) {
+                steps[stepCount++] = INSERTED;
+                j++;
+            } else {
+                steps[stepCount++] = REMOVED;
+                newPositions[i++] = -1;
+            }
+        }
+
+        // Rows left over are compared only if the other page holds all of its rows
+        if (newRows.length == newCount) {
+            while (i < oldRows.length) {
+                steps[stepCount++] = REMOVED;
+                newPositions[i++] = -1;
+            }
+        }
+
+        if (oldRows.length == oldCount) {
+            while (j < newRows.length) {
+                steps[stepCount++] = INSERTED;
+                j++;
+            }
+        }
+
+        final int shift = j - i;
+        if (newCount - oldCount != shift) {
+            // Rows past the pages changed too
+            return null;
+        }
+
+        final int[] compared = new int[i];
+        System.arraycopy(newPositions, 0, compared, 0, i);
+
+        return new LogDiff(oldPager, steps, stepCount, compared, shift);
+    }
+
+    /**
+     * Checks whether the diff leads from a given pager.
+     *
+     * @param pager pager to be checked
+     * @return {@code true} if the diff was made against the pager
+     */
+    public boolean isFrom(LogPager pager) {
+        return pager != null && pager == oldPager;
+    }
+
+    /**
+     * Returns the number of steps.
+     *
+     * @return number of rows compared, counting rows found in both pages once
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Returns a step in the list order.
+     *
+     * @param index index of the step
+     * @return one of {@link #KEPT}, {@link #CHANGED}, {@link #INSERTED} or {@link #REMOVED}
+     */
+    public int getStep(int index) {
+        return steps[index];
+    }
+
+    /**
+     * Returns the number of old rows compared. Rows from this position on were not changed.
+     *
+     * @return number of old rows the steps cover
+     */
+    public int getOldCompared() {
+        return newPositions.length;
+    }
+
+    /**
+     * Maps a position in the old pager to the new one.
+     *
+     * @param oldPosition position of a row in the old pager
+     * @return position of the row in the new pager, or -1 if it was removed
+     */
+    public int getNewPosition(int oldPosition) {
+        return oldPosition < newPositions.length ?
+                newPositions[oldPosition] : oldPosition + shift;
+    }
+}
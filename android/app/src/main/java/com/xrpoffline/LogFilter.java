@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.os.Bundle;
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Criteria the log list is narrowed down by: text of account addresses, destinations and
+ * messages, an item type and a time range.
+ * <p/>
+ * Criteria become a selection over columns that the logs view shares with log entries,
+ * so one selection serves both counting and paging. Text is looked up in the full-text
+ * index of logs, every word of the query matches as a prefix.
+ */
+public class LogFilter {
+
+    /**
+     * Type of filters that match logs of every item type.
+     */
+    public static final int TYPE_ANY = Integer.MIN_VALUE;
+
+    /**
+     * Filter that matches all logs.
+     */
+    public static final LogFilter NONE = new LogFilter(null, TYPE_ANY, 0, Long.MAX_VALUE);
+
+    // Shorter words match nearly every address, they do not narrow the list down
+    private static final int MIN_TERM_LENGTH = 2;
+
+    // Matches are probed while the time index is scanned in the list order. The unary plus
+    // keeps the row id from being used as an index, which would sort every match first.
+    private static final String SELECTION_TEXT = "+" + BaseColumns._ID
+            + " in (select docid from " + DatabaseHelper.TABLE_LOGS_SEARCH + " where "
+            + DatabaseHelper.TABLE_LOGS_SEARCH + " match ?)";
+
+    private static final String SELECTION_TYPE = DatabaseHelper.TYPE + " = ?";
+    private static final String SELECTION_MIN_TIME = DatabaseHelper.TIME_CREATED + " >= ?";
+    private static final String SELECTION_MAX_TIME = DatabaseHelper.TIME_CREATED + " < ?";
+
+    // Bundle keys
+    private static final String KEY_QUERY = "filter_query";
+    private static final String KEY_TYPE = "filter_type";
+    private static final String KEY_MIN_TIME = "filter_min_time";
+    private static final String KEY_MAX_TIME = "filter_max_time";
+
+    /**
+     * Text to be searched for, may be {@code null}.
+     */
+    public final String query;
+
+    /**
+     * One of {@link ItemTypes}, or {@link #TYPE_ANY}.
+     */
+    public final int type;
+
+    /**
+     * Creation time range in milliseconds, from inclusive to exclusive.
+     */
+    public final long minTime, maxTime;
+
+    public LogFilter(String query, int type, long minTime, long maxTime) {
+        this.query = query;
+        this.type = type;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+    }
+
+    /**
+     * Returns the selection of logs that match the filter.
+     *
+     * @return selection, or {@code null} if the filter matches all logs
+     */
+    public String getSelection() {
+        final StringBuilder selection = new StringBuilder();
+
+        if (toMatchExpression(query) != null) {
+            appendWhere(selection, SELECTION_TEXT);
+        }
+
+        if (type != TYPE_ANY) {
+            appendWhere(selection, SELECTION_TYPE);
+        }
+
+        if (minTime > 0) {
+            appendWhere(selection, SELECTION_MIN_TIME);
+        }
+
+        if (maxTime < Long.MAX_VALUE) {
+            appendWhere(selection, SELECTION_MAX_TIME);
+        }
+
+        return selection.length() > 0 ? selection.toString() : null;
+    }
+
+    /**
+     * Returns arguments of the selection, in order of their placeholders.
+     *
+     * @return selection arguments, or {@code null} if the filter matches all logs
+     */
+    public String[] getSelectionArgs() {
+        final List<String> args = new ArrayList<>(4);
+
+        final String match = toMatchExpression(query);
+        if (match != null) {
+            args.add(match);
+        }
+
+        if (type != TYPE_ANY) {
+            args.add(String.valueOf(type));
+        }
+
+        if (minTime > 0) {
+            args.add(String.valueOf(minTime));
+        }
+
+        if (maxTime < Long.MAX_VALUE) {
+            args.add(String.valueOf(maxTime));
+        }
+
+        return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Stores the filter in a bundle, e.g. loader arguments or saved instance state.
+     *
+     * @param bundle bundle to be written
+     */
+    public void writeTo(Bundle bundle) {
+        bundle.putString(KEY_QUERY, query);
+        bundle.putInt(KEY_TYPE, type);
+        bundle.putLong(KEY_MIN_TIME, minTime);
+        bundle.putLong(KEY_MAX_TIME, maxTime);
+    }
+
+    /**
+     * Restores a filter stored by {@link #writeTo}.
+     *
+     * @param bundle bundle to be read, may be {@code null}
+     * @return stored filter, or {@link #NONE} if there is none
+     */
+    public static LogFilter readFrom(Bundle bundle) {
+        if (bundle == null || !bundle.containsKey(KEY_TYPE)) {
+            return NONE;
+        }
+
+        return new LogFilter(bundle.getString(KEY_QUERY), bundle.getInt(KEY_TYPE),
+                bundle.getLong(KEY_MIN_TIME), bundle.getLong(KEY_MAX_TIME));
+    }
+
+    /**
+     * Turns a query typed by the user into a full-text expression. Words are split like
+     * the index tokenizer does, on ASCII characters other than letters and digits.
+     *
+     * @param query query text, may be {@code null}
+     * @return expression of prefix terms, or {@code null} if there is no word to search for
+     */
+    static String toMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        final StringBuilder expression = new StringBuilder();
+
+        final int length = query.length();
+        int start = 0;
+
+        for (int i = 0; i <= length; i++) {
+            if (i < length && isTokenChar(query.charAt(i))) {
+                continue;
+            }
+
+            if (i - start >= MIN_TERM_LENGTH) {
+                if (expression.length() > 0) {
+                    expression.append(' ');
+                }
+
+                // Lower case keeps words like OR from being read as operators
+                expression.append(query.substring(start, i).toLowerCase(Locale.US)).append('*');
+            }
+
+            start = i + 1;
+        }
+
+        return expression.length() > 0 ? expression.toString() : null;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z');
+    }
+
+    private static void appendWhere(StringBuilder selection, String where) {
+        if (selection.length() > 0) {
+            selection.append(" and ");
+        }
+
+        selection.append(where);
+    }
+}
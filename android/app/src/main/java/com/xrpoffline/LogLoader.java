@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Loader that provides a {@link LogPager} over the logs table and reloads it whenever
+ * the logs change.
+ * <p/>
+ * Unlike {@code CursorLoader}, only the row count and the first page are read
+ * on every reload, no matter how many logs there are. A load made stale by a restart
+ * closes its pager, which skips the first page if the count is still being read.
+ * <p/>
+ * Every pager is compared with the one it replaces in the background, so the list can
+ * animate the rows that changed instead of redrawing them all, see {@link LogDiff}.
+ */
+public class LogLoader extends AsyncTaskLoader<LogPager> {
+
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+
+    private final Uri uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+
+    // Pager shown so far, written on the main thread and read once by every load
+    private volatile LogPager pager;
+    private boolean isObserving;
+
+    // Pager being loaded in the background
+    private volatile LogPager loadingPager;
+
+    /**
+     * Creates a new loader.
+     *
+     * @param context       context of the loader
+     * @param uri           content Uri of the logs table
+     * @param projection    columns to be read, {@code null} for all of them
+     * @param selection     rows to be read, see {@link LogPager}, {@code null} for all of them
+     * @param selectionArgs arguments of the selection
+     */
+    public LogLoader(Context context, Uri uri, String[] projection, String selection,
+                     String[] selectionArgs) {
+
+        super(context);
+
+        this.uri = uri;
+        this.projection = projection;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+    }
+
+    @Override
+    public LogPager loadInBackground() {
+        // Results are delivered between loads, the pager compared is the one shown at the start
+        final LogPager shownPager = pager;
+
+        final LogPager newPager = new LogPager(getContext().getContentResolver(), uri, projection,
+                selection, selectionArgs);
+
+        loadingPager = newPager;
+        try {
+            newPager.load();
+            newPager.diff(shownPager);
+        } finally {
+            loadingPager = null;
+        }
+
+        return newPager;
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        final LogPager canceledPager = loadingPager;
+        if (canceledPager != null) {
+            canceledPager.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(LogPager newPager) {
+        if (isReset()) {
+            // Loader was stopped meanwhile
+            if (newPager != null) {
+                newPager.close();
+            }
+
+            return;
+        }
+
+        final LogPager oldPager = pager;
+        pager = newPager;
+
+        if (isStarted()) {
+            super.deliverResult(newPager);
+        }
+
+        if (oldPager != null && oldPager != newPager) {
+            oldPager.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!isObserving) {
+            // Page cursors are not observed, one observer covers the whole table
+            getContext().getContentResolver().registerContentObserver(uri, true, observer);
+            isObserving = true;
+        }
+
+        if (pager != null) {
+            deliverResult(pager);
+        }
+
+        if (takeContentChanged() || pager == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(LogPager canceledPager) {
+        if (canceledPager != null) {
+            canceledPager.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        if (pager != null) {
+            pager.close();
+            pager = null;
+        }
+
+        getContext().getContentResolver().unregisterContentObserver(observer);
+        isObserving = false;
+    }
+}
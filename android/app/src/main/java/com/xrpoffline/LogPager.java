@@ -0,0 +1,645 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.BaseColumns;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Read-only window over logs, sorted from the newest to the oldest, that holds only a few
+ * fixed-size pages in memory.
+ * <p/>
+ * Pages are fetched by keyset on {@code (time_created, _id)}: a page continues right after
+ * the last row of its resident neighbour, so the database seeks the index instead of skipping
+ * rows like {@code offset} does. Only a page with no resident neighbour, e.g. after a jump
+ * to the middle of the list, looks up its first key by an offset scan of the index.
+ * <p/>
+ * Pages are read into immutable {@link LogRow rows} in the background and their cursors are
+ * closed right away. The next page is prefetched as the reader nears the end of a page, pages
+ * far from the current position are dropped. A row whose page is not in memory is never read
+ * on the calling thread: it is missing until its page is read in the background, then the
+ * {@link OnPageLoadedListener listener} is told. All methods except {@link #load} and
+ * {@link #diff} must be called on the main thread.
+ * <p/>
+ * A selection, e.g. of a {@link LogFilter}, narrows down the rows. It is combined with
+ * the keys of every page query, so it should be served by an index sorted by time.
+ */
+public class LogPager {
+
+    private static final String TAG = LogPager.class.getName();
+
+    /**
+     * Number of rows in a page.
+     */
+    public static final int PAGE_SIZE = 50;
+
+    // Number of pages kept in memory
+    private static final int MAX_PAGES = 6;
+
+    // Distance from the page boundary, in rows, at which the adjacent page is prefetched
+    private static final int PREFETCH_DISTANCE = 15;
+
+    private static final String ORDER_DESC =
+            DatabaseHelper.TIME_CREATED + " desc, " + BaseColumns._ID + " desc";
+
+    private static final String ORDER_ASC =
+            DatabaseHelper.TIME_CREATED + " asc, " + BaseColumns._ID + " asc";
+
+    // Rows older than the given key, exclusive. The first term lets the index seek
+    // right to the key, the second one only resolves rows created at the same time.
+    static final String SELECTION_AFTER = DatabaseHelper.TIME_CREATED + " <= ? and ("
+            + DatabaseHelper.TIME_CREATED + " < ? or " + BaseColumns._ID + " < ?)";
+
+    // Rows newer than the given key, exclusive
+    private static final String SELECTION_BEFORE = DatabaseHelper.TIME_CREATED + " >= ? and ("
+            + DatabaseHelper.TIME_CREATED + " > ? or " + BaseColumns._ID + " > ?)";
+
+    // Rows from the given key on, inclusive
+    private static final String SELECTION_FROM = DatabaseHelper.TIME_CREATED + " <= ? and ("
+            + DatabaseHelper.TIME_CREATED + " < ? or " + BaseColumns._ID + " <= ?)";
+
+    // Counts and keys are read from the table behind the logs view, without its joins
+    private static final Uri ENTRIES_URI =
+            Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOG_ENTRIES);
+
+    private static final String[] KEY_PROJECTION =
+            new String[]{DatabaseHelper.TIME_CREATED, BaseColumns._ID};
+
+    private static final ExecutorService prefetcher =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    /**
+     * Interface definition for a callback to be invoked when a page with missing rows was read.
+     */
+    public interface OnPageLoadedListener {
+
+        /**
+         * Called on the main thread when rows that were missing are available.
+         *
+         * @param pager pager the rows belong to
+         * @param start position of the first row of the page
+         * @param count number of rows of the page
+         */
+        void onPageLoaded(LogPager pager, int start, int count);
+    }
+
+    /**
+     * Interface definition for a test of rows, see {@link #findResidentRows}.
+     */
+    public interface RowMatcher {
+
+        /**
+         * Checks whether a row is wanted.
+         *
+         * @param row row to be checked
+         * @return {@code true} if the row matches
+         */
+        boolean matches(LogRow row);
+    }
+
+    /**
+     * Page of rows in the list order, even if it was fetched in the ascending order when it
+     * was loaded backwards.
+     */
+    private static class Page {
+
+        final LogRow[] rows;
+
+        Page(Cursor cursor, boolean isReversed) {
+            // Rows are read in the background, before the page is used
+            rows = LogRow.readAll(cursor, isReversed);
+        }
+
+        LogRow first() {
+            return rows[0];
+        }
+
+        LogRow last() {
+            return rows[rows.length - 1];
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+
+    private final SparseArray<Page> pages = new SparseArray<>();
+    private final SparseBooleanArray loadingPages = new SparseBooleanArray();
+
+    // Pages whose rows were asked for before they were read, used on the main thread only
+    private final SparseBooleanArray missingPages = new SparseBooleanArray();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private OnPageLoadedListener listener;
+
+    private int count;
+    private boolean isClosed;
+
+    // Changes since the pager this one replaces, until they are taken
+    private LogDiff diff;
+
+    /**
+     * Creates a new pager. No data is read until {@link #load} is called.
+     *
+     * @param resolver   resolver used to query the logs
+     * @param uri        content Uri of the logs table
+     * @param projection columns to be read, {@code null} for all of them
+     */
+    public LogPager(ContentResolver resolver, Uri uri, String[] projection) {
+        this(resolver, uri, projection, null, null);
+    }
+
+    /**
+     * Creates a new pager over some of the rows. No data is read until {@link #load}
+     * is called.
+     *
+     * @param resolver      resolver used to query the logs
+     * @param uri           content Uri of the logs table
+     * @param projection    columns to be read, {@code null} for all of them
+     * @param selection     rows to be read, over columns log entries share with the logs,
+     *                      {@code null} for all of them
+     * @param selectionArgs arguments of the selection
+     */
+    public LogPager(ContentResolver resolver, Uri uri, String[] projection, String selection,
+                    String[] selectionArgs) {
+
+        this.resolver = resolver;
+        this.uri = uri;
+        this.projection = projection;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+    }
+
+    /**
+     * Counts the rows and reads the first page. Must be called on a background thread
+     * before the pager is used. Stops early if the pager is closed meanwhile.
+     */
+    public void load() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+        }
+
+        final Cursor cursor = resolver.query(ENTRIES_URI, new String[]{"count(*)"},
+                liveWhere(), selectionArgs, null);
+        if (cursor != null) {
+            try {
+                count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        if (count > 0) {
+            loadPage(0);
+        }
+    }
+
+    /**
+     * Compares the first page with the first page of the pager this one replaces, see
+     * {@link LogDiff}. Must be called on a background thread after {@link #load}.
+     * <p/>
+     * Rows of the replaced pager are taken at once, they are immutable and stay valid if it is
+     * closed meanwhile. A pager closed before they are taken is not compared.
+     *
+     * @param oldPager pager replaced, may be {@code null}
+     */
+    public void diff(LogPager oldPager) {
+        if (oldPager == null) {
+            return;
+        }
+
+        final LogRow[] oldRows;
+        final int oldCount;
+
+        synchronized (oldPager) {
+            oldRows = oldPager.getPageRows(0);
+            oldCount = oldPager.count;
+        }
+
+        final LogDiff newDiff = LogDiff.compute(oldPager, oldRows, oldCount, getPageRows(0),
+                count);
+
+        synchronized (this) {
+            if (!isClosed) {
+                diff = newDiff;
+            }
+        }
+    }
+
+    /**
+     * Returns the changes since the pager this one replaces, once.
+     *
+     * @return changes, or {@code null} if they are not known
+     */
+    public synchronized LogDiff takeDiff() {
+        final LogDiff taken = diff;
+        diff = null;
+
+        return taken;
+    }
+
+    /**
+     * Sets the callback notified when rows that were missing are read.
+     *
+     * @param listener callback, or {@code null} for none
+     */
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the count of rows, including the ones not read yet.
+     *
+     * @return number of rows
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns a row if its page is in memory, otherwise the page is read in the background.
+     *
+     * @param position position of the row
+     * @return the row, or {@code null} if it is not read yet or could not be read
+     */
+    public LogRow getRow(int position) {
+        if (position < 0 || position >= count) {
+            return null;
+        }
+
+        final int index = position / PAGE_SIZE;
+        final int row = position % PAGE_SIZE;
+
+        final Page page = getPage(index);
+        if (page == null) {
+            // Reader got ahead of the prefetch, the row is shown once its page is read
+            missingPages.put(index, true);
+
+            prefetch(index);
+        }
+
+        if (row >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            prefetch(index + 1);
+        } else if (row < PREFETCH_DISTANCE) {
+            prefetch(index - 1);
+        }
+
+        evictPages(index);
+
+        return page != null && row < page.rows.length ? page.rows[row] : null;
+    }
+
+    /**
+     * Finds rows among the pages in memory, no page is read. Rows not in memory
+     * are not shown either.
+     *
+     * @param matcher   test of the rows to be found
+     * @param positions set the positions of rows found are added to
+     */
+    public synchronized void findResidentRows(RowMatcher matcher, PositionSet positions) {
+        for (int i = 0; i < pages.size(); i++) {
+            final LogRow[] rows = pages.valueAt(i).rows;
+            final int start = pages.keyAt(i) * PAGE_SIZE;
+
+            for (int j = 0; j < rows.length; j++) {
+                if (matcher.matches(rows[j])) {
+                    positions.add(start + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the selection of log entries of the pager from a row on, the row included,
+     * e.g. to write all rows shown when the row was the first one.
+     *
+     * @return selection over columns of log entries, live or not
+     */
+    public String getSelectionFrom() {
+        return where(SELECTION_FROM);
+    }
+
+    /**
+     * Returns arguments of {@link #getSelectionFrom}.
+     *
+     * @param time time the row was created
+     * @param id   row id of the row
+     * @return selection arguments
+     */
+    public String[] getSelectionArgsFrom(long time, long id) {
+        return whereArgs(keyArgs(time, id));
+    }
+
+    /**
+     * Drops all pages. Pages being prefetched are dropped as soon as they are read.
+     */
+    public synchronized void close() {
+        isClosed = true;
+
+        pages.clear();
+        diff = null;
+    }
+
+    private synchronized Page getPage(int index) {
+        return pages.get(index);
+    }
+
+    /**
+     * Returns rows of a resident page, or no rows if the pager is empty.
+     *
+     * @return rows in the list order, or {@code null} if the page is not in memory
+     */
+    private synchronized LogRow[] getPageRows(int index) {
+        final Page page = pages.get(index);
+        if (page != null) {
+            return page.rows;
+        }
+
+        return count == 0 && !isClosed ? new LogRow[0] : null;
+    }
+
+    private void prefetch(final int index) {
+        synchronized (this) {
+            if (index < 0 || index * PAGE_SIZE >= count || isClosed
+                    || pages.get(index) != null || loadingPages.get(index)) {
+
+                return;
+            }
+
+            loadingPages.put(index, true);
+        }
+
+        prefetcher.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (readPage(index) == null) {
+                    return;
+                }
+
+                handler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        onPageRead(index);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tells the listener about a page read in the background, if its rows were missing.
+     */
+    private void onPageRead(int index) {
+        if (!missingPages.get(index)) {
+            return;
+        }
+
+        missingPages.delete(index);
+
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+        }
+
+        if (listener != null) {
+            final int start = index * PAGE_SIZE;
+
+            listener.onPageLoaded(this, start, Math.min(PAGE_SIZE, count - start));
+        }
+    }
+
+    /**
+     * Reads a page, unless it is resident already. Waits if the page is being prefetched.
+     *
+     * @param index index of the page
+     * @return the page, or {@code null} if it could not be read
+     */
+    private Page loadPage(int index) {
+        synchronized (this) {
+            while (loadingPages.get(index)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    return null;
+                }
+            }
+
+            final Page page = pages.get(index);
+            if (page != null || isClosed) {
+                return page;
+            }
+
+            loadingPages.put(index, true);
+        }
+
+        return readPage(index);
+    }
+
+    /**
+     * Reads a page already marked as loading and makes it resident.
+     *
+     * @param index index of the page
+     * @return the page, or {@code null} if it could not be read
+     */
+    private Page readPage(int index) {
+        final Page previous, next;
+
+        // Only keys of the neighbours are used, they stay valid even if evicted meanwhile
+        synchronized (this) {
+            previous = pages.get(index - 1);
+            next = pages.get(index + 1);
+        }
+
+        Page page = null;
+        try {
+            page = queryPage(index, previous, next);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not read page " + index, e);
+        }
+
+        synchronized (this) {
+            loadingPages.delete(index);
+
+            if (page != null && isClosed) {
+                page = null;
+            } else if (page != null) {
+                pages.put(index, page);
+            }
+
+            notifyAll();
+        }
+
+        return page;
+    }
+
+    private Page queryPage(int index, Page previous, Page next) {
+        final Uri pageUri = uri.buildUpon()
+                .appendQueryParameter(DataProvider.QUERY_LIMIT, String.valueOf(PAGE_SIZE))
+                .build();
+
+        final Cursor cursor;
+        boolean isReversed = false;
+
+        if (index == 0) {
+            cursor = resolver.query(pageUri, projection, selection, selectionArgs, ORDER_DESC);
+        } else if (previous != null) {
+            cursor = resolver.query(pageUri, projection, where(SELECTION_AFTER),
+                    whereArgs(keyArgs(previous.last())), ORDER_DESC);
+        } else if (next != null) {
+            cursor = resolver.query(pageUri, projection, where(SELECTION_BEFORE),
+                    whereArgs(keyArgs(next.first())), ORDER_ASC);
+
+            isReversed = true;
+        } else {
+            cursor = seekPage(index, pageUri);
+        }
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            // Rows were deleted since counted, the loader is about to reload
+            return cursor.getCount() > 0 ? new Page(cursor, isReversed) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads a page that has no neighbour to continue from.
+     */
+    private Cursor seekPage(int index, Uri pageUri) {
+        final Uri keyUri = ENTRIES_URI.buildUpon()
+                .appendQueryParameter(DataProvider.QUERY_LIMIT, index * PAGE_SIZE + ",1")
+                .build();
+
+        // Key columns are covered by the time indexes, only text filters touch other tables
+        final Cursor key = resolver.query(keyUri, KEY_PROJECTION, liveWhere(), selectionArgs,
+                ORDER_DESC);
+        if (key == null) {
+            return null;
+        }
+
+        final String[] args;
+        try {
+            if (!key.moveToFirst()) {
+                return null;
+            }
+
+            args = keyArgs(key.getLong(0), key.getLong(1));
+        } finally {
+            key.close();
+        }
+
+        return resolver.query(pageUri, projection, where(SELECTION_FROM), whereArgs(args),
+                ORDER_DESC);
+    }
+
+    /**
+     * Combines the selection of the pager with the live rows of log entries. The logs view
+     * leaves tombstoned rows out by itself.
+     */
+    private String liveWhere() {
+        return selection != null ? DatabaseHelper.SELECTION_LIVE + " and (" + selection + ")" :
+                DatabaseHelper.SELECTION_LIVE;
+    }
+
+    /**
+     * Combines the selection of the pager with a key selection.
+     */
+    private String where(String keySelection) {
+        return selection != null ? "(" + selection + ") and (" + keySelection + ")" : keySelection;
+    }
+
+    /**
+     * Combines arguments of the selection of the pager with key arguments.
+     */
+    private String[] whereArgs(String[] keyArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return keyArgs;
+        }
+
+        final String[] args = new String[selectionArgs.length + keyArgs.length];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        System.arraycopy(keyArgs, 0, args, selectionArgs.length, keyArgs.length);
+
+        return args;
+    }
+
+    private static String[] keyArgs(LogRow row) {
+        return keyArgs(row.timeCreated, row.id);
+    }
+
+    static String[] keyArgs(long time, long id) {
+        final String timeArg = String.valueOf(time);
+
+        return new String[]{timeArg, timeArg, String.valueOf(id)};
+    }
+
+    /**
+     * Closes pages farthest from the current one while there are too many of them.
+     */
+    private synchronized void evictPages(int index) {
+        while (pages.size() > MAX_PAGES) {
+            int farthest = 0;
+
+            for (int i = 1; i < pages.size(); i++) {
+                if (Math.abs(pages.keyAt(i) - index) > Math.abs(pages.keyAt(farthest) - index)) {
+                    farthest = i;
+                }
+            }
+
+            pages.removeAt(farthest);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the logs table from growing without bound.
+ * <p/>
+ * Logs are pruned by {@link Policy policies} on a background thread, shortly after start and
+ * then periodically. Rows are deleted in small batches, each in its own transaction, so the
+ * list and the parser are never locked out for long. Rows of archived policies are appended
+ * to a gzip file of JSON lines before they are deleted. Once rows were pruned, free pages
+ * are returned to the file system, see {@link DataProvider#COMPACT_URI}.
+ * <p/>
+ * Logs tombstoned long ago, but never purged, are purged on every pass, see
+ * {@link LogTombstones}. So are outbox commands finished long ago, see {@link Outbox}.
+ */
+public class LogRetention {
+
+    private static final String TAG = LogRetention.class.getName();
+
+    private static final Uri URI =
+            Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOGS);
+
+    // Delay of the first pass, lets the app finish starting up
+    private static final long FIRST_RUN_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    // How often logs are pruned
+    private static final long RUN_INTERVAL = TimeUnit.HOURS.toMillis(6);
+
+    // Age of tombstoned logs that are purged, deletions are undone well before
+    private static final long TOMBSTONE_MAX_AGE = TimeUnit.MINUTES.toMillis(10);
+
+    // Answered and failed outbox commands are kept for a week, up to a number of them
+    private static final long OUTBOX_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    private static final int OUTBOX_MAX_COUNT = 1000;
+
+    // Number of rows deleted in one transaction
+    private static final int BATCH_SIZE = 500;
+
+    private static final String ARCHIVE_DIR = "archive";
+
+    // Archives are split by month of pruning
+    private static final String ARCHIVE_TEMPLATE = "'logs-'yyyy-MM'.json.gz'";
+
+    private static final String ORDER_OLDEST =
+            DatabaseHelper.TIME_CREATED + " asc, " + BaseColumns._ID + " asc";
+
+    private static final String ORDER_NEWEST =
+            DatabaseHelper.TIME_CREATED + " desc, " + BaseColumns._ID + " desc";
+
+    // Keys are looked up in the table behind the logs view, without its joins
+    private static final Uri ENTRIES_URI =
+            Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOG_ENTRIES);
+
+    private static final String[] ID_PROJECTION = new String[]{BaseColumns._ID};
+
+    private static final String[] KEY_PROJECTION =
+            new String[]{DatabaseHelper.TIME_CREATED, BaseColumns._ID};
+
+    /**
+     * Rule that selects logs to be pruned, by age or by count, of one item type or of all.
+     */
+    public static class Policy {
+
+        /**
+         * Type of policies that apply to logs of every item type.
+         */
+        public static final int TYPE_ANY = Integer.MIN_VALUE;
+
+        final int type;
+        final long maxAge;
+        final int maxCount;
+        final boolean isArchived;
+
+        private Policy(int type, long maxAge, int maxCount, boolean isArchived) {
+            this.type = type;
+            this.maxAge = maxAge;
+            this.maxCount = maxCount;
+            this.isArchived = isArchived;
+        }
+
+        /**
+         * Creates a policy that prunes logs older than a given age.
+         *
+         * @param type       one of {@link ItemTypes}, or {@link #TYPE_ANY}
+         * @param maxAge     age in milliseconds
+         * @param isArchived {@code true} to archive the logs before they are deleted
+         * @return new policy
+         */
+        public static Policy byAge(int type, long maxAge, boolean isArchived) {
+            return new Policy(type, maxAge, 0, isArchived);
+        }
+
+        /**
+         * Creates a policy that keeps only a given count of the newest logs.
+         *
+         * @param type       one of {@link ItemTypes}, or {@link #TYPE_ANY}
+         * @param maxCount   number of logs kept
+         * @param isArchived {@code true} to archive the logs before they are deleted
+         * @return new policy
+         */
+        public static Policy byCount(int type, int maxCount, boolean isArchived) {
+            return new Policy(type, 0, maxCount, isArchived);
+        }
+    }
+
+    /**
+     * Policies applied unless others are given. Server state and ledger logs are only
+     * snapshots, the rest is archived.
+     */
+    public static final List<Policy> DEFAULT_POLICIES = Arrays.asList(
+            Policy.byCount(ItemTypes.TYPE_STATE, 1000, false),
+            Policy.byCount(ItemTypes.TYPE_LEDGER, 1000, false),
+            Policy.byAge(Policy.TYPE_ANY, TimeUnit.DAYS.toMillis(90), true),
+            Policy.byCount(Policy.TYPE_ANY, 100000, true));
+
+    private final Context context;
+    private final ContentResolver resolver;
+    private final List<Policy> policies;
+    private final LogTombstones tombstones;
+    private final Outbox outbox;
+
+    private HandlerThread thread;
+    private Handler handler;
+
+    // Set by stop(), ends a pass in progress after its current batch
+    private volatile boolean isCancelled;
+
+    public LogRetention(Context context) {
+        this(context, DEFAULT_POLICIES);
+    }
+
+    public LogRetention(Context context, List<Policy> policies) {
+        this.context = context.getApplicationContext();
+        this.resolver = this.context.getContentResolver();
+        this.policies = policies;
+        this.tombstones = new LogTombstones(this.context);
+        this.outbox = new Outbox(this.context);
+    }
+
+    /**
+     * Starts pruning logs periodically.
+     */
+    public void start() {
+        if (thread != null) {
+            return;
+        }
+
+        isCancelled = false;
+
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+
+        handler = new Handler(thread.getLooper());
+        handler.postDelayed(runTask, FIRST_RUN_DELAY);
+    }
+
+    /**
+     * Stops pruning. A pass in progress stops after its current batch.
+     */
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        isCancelled = true;
+
+        handler.removeCallbacks(runTask);
+        thread.quit();
+        thread = null;
+    }
+
+    private final Runnable runTask = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                final int count = prune();
+
+                Log.i(TAG, "Pruned " + count + " logs");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not prune logs", e);
+            }
+
+            if (!isCancelled) {
+                handler.postDelayed(this, RUN_INTERVAL);
+            }
+        }
+    };
+
+    /**
+     * Applies all policies and compacts the database if anything was deleted.
+     * Accesses the database, should not be called from the main thread.
+     *
+     * @return number of logs deleted
+     */
+    public int prune() {
+        // Tombstones no longer offered to be restored
+        int count = tombstones.purgeBefore(System.currentTimeMillis() - TOMBSTONE_MAX_AGE);
+
+        for (Policy policy : policies) {
+            count += apply(policy);
+        }
+
+        // Finished commands only grow the outbox
+        final int commandCount = outbox.pruneFinished(
+                System.currentTimeMillis() - OUTBOX_MAX_AGE, OUTBOX_MAX_COUNT);
+
+        if (count > 0 || commandCount > 0) {
+            compact();
+        }
+
+        return count;
+    }
+
+    private int apply(Policy policy) {
+        final StringBuilder selection = new StringBuilder();
+        final List<String> args = new ArrayList<>();
+
+        if (policy.type != Policy.TYPE_ANY) {
+            selection.append(DatabaseHelper.TYPE).append(" = ?");
+            args.add(String.valueOf(policy.type));
+        }
+
+        if (policy.maxCount > 0) {
+            // Everything older than the oldest log kept
+            final String[] key = findKey(selection.toString(), args, policy.maxCount - 1);
+            if (key == null) {
+                return 0;
+            }
+
+            appendWhere(selection, LogPager.SELECTION_AFTER);
+            args.addAll(Arrays.asList(key));
+        }
+
+        if (policy.maxAge > 0) {
+            appendWhere(selection, DatabaseHelper.TIME_CREATED + " < ?");
+            args.add(String.valueOf(System.currentTimeMillis() - policy.maxAge));
+        }
+
+        return delete(selection.toString(), args.toArray(new String[args.size()]),
+                policy.isArchived);
+    }
+
+    /**
+     * Looks up the key of a log at a given position, from the newest.
+     *
+     * @return selection arguments of the key, or {@code null} if there are not as many logs
+     */
+    private String[] findKey(String selection, List<String> args, int position) {
+        final Uri uri = ENTRIES_URI.buildUpon()
+                .appendQueryParameter(DataProvider.QUERY_LIMIT, position + ",1")
+                .build();
+
+        // Only live logs are kept, tombstoned ones are purged anyway
+        final StringBuilder where = new StringBuilder(DatabaseHelper.SELECTION_LIVE);
+        if (selection.length() > 0) {
+            appendWhere(where, selection);
+        }
+
+        final Cursor cursor = resolver.query(uri, KEY_PROJECTION, where.toString(),
+                args.toArray(new String[args.size()]), ORDER_NEWEST);
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            return cursor.moveToFirst() ?
+                    LogPager.keyArgs(cursor.getLong(0), cursor.getLong(1)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes logs in batches, starting with the oldest ones.
+     *
+     * @return number of logs deleted
+     */
+    private int delete(String selection, String[] args, boolean isArchived) {
+        final Uri uri = URI.buildUpon()
+                .appendQueryParameter(DataProvider.QUERY_LIMIT, String.valueOf(BATCH_SIZE))
+                .build();
+
+        int count = 0;
+
+        while (!isCancelled) {
+            final List<Long> ids = new ArrayList<>(BATCH_SIZE);
+
+            final Cursor cursor = resolver.query(uri, isArchived ? null : ID_PROJECTION,
+                    selection, args, ORDER_OLDEST);
+
+            if (cursor == null) {
+                break;
+            }
+
+            try {
+                if (isArchived && !archive(cursor)) {
+                    // Rows are never deleted before they are safely stored
+                    break;
+                }
+
+                final int idIndex = cursor.getColumnIndex(BaseColumns._ID);
+
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(idIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            for (String[] idArgs : TextUtils.makeWhereArgs(ids)) {
+                count += resolver.delete(URI, TextUtils.makeWhereClause(idArgs.length), idArgs);
+            }
+
+            if (ids.size() < BATCH_SIZE) {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Appends rows to the archive of the current month, one JSON object per line.
+     * Every call adds a new gzip member, concatenated members form a valid gzip file.
+     *
+     * @param cursor rows to be archived
+     * @return {@code true} if the rows were written
+     */
+    private boolean archive(Cursor cursor) {
+        if (cursor.getCount() == 0) {
+            return true;
+        }
+
+        final File dir = new File(context.getFilesDir(), ARCHIVE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create archive directory");
+
+            return false;
+        }
+
+        final String name = new SimpleDateFormat(ARCHIVE_TEMPLATE, Locale.US)
+                .format(System.currentTimeMillis());
+
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(new File(dir, name), true)),
+                    "UTF-8"));
+
+            final String[] columns = cursor.getColumnNames();
+
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                final JSONObject row = new JSONObject();
+                for (int i = 0; i < columns.length; i++) {
+                    row.put(columns[i], cursor.isNull(i) ? JSONObject.NULL : cursor.getString(i));
+                }
+
+                writer.write(row.toString());
+                writer.write('\n');
+            }
+
+            writer.close();
+            writer = null;
+
+            return true;
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Could not archive logs", e);
+
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // Already failed
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns free pages to the file system, through the public interface of the provider.
+     */
+    private void compact() {
+        resolver.update(DataProvider.COMPACT_URI, null, null, null);
+    }
+
+    private static void appendWhere(StringBuilder selection, String where) {
+        if (selection.length() > 0) {
+            selection.append(" and ");
+        }
+
+        selection.append('(').append(where).append(')');
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+
+/**
+ * Immutable model of a row of the log list, with the columns shown on collapsed cards.
+ * <p/>
+ * Rows are read from page cursors on a background thread, with column indices resolved once
+ * per cursor, so binding a card never touches a cursor. Columns missing from a cursor are
+ * {@code null}, or {@code 0} for numbers.
+ */
+public class LogRow {
+
+    /**
+     * Columns read with the list, a union of columns shown by all item types. Columns
+     * of other item types are null in a row, so they take next to no space in the window.
+     */
+    public static final String[] PROJECTION = new String[]{
+            BaseColumns._ID,
+            DatabaseHelper.TYPE,
+            DatabaseHelper.TIME_CREATED,
+            DatabaseHelper.ACCOUNT,
+            DatabaseHelper.DESTINATION,
+            DatabaseHelper.BALANCE,
+            DatabaseHelper.ISSUED_VALUE,
+            DatabaseHelper.AMOUNT,
+            DatabaseHelper.PEERS,
+            DatabaseHelper.FEE,
+            DatabaseHelper.SEQUENCE,
+            DatabaseHelper.CURRENCY,
+            DatabaseHelper.HASH,
+            DatabaseHelper.LEDGER_INDEX
+    };
+
+    // Indices of the columns read, in the order of the projection
+    private static final int ID = 0;
+    private static final int TYPE = 1;
+    private static final int TIME_CREATED = 2;
+    private static final int ACCOUNT = 3;
+    private static final int DESTINATION = 4;
+    private static final int BALANCE = 5;
+    private static final int ISSUED_VALUE = 6;
+    private static final int AMOUNT = 7;
+    private static final int PEERS = 8;
+    private static final int FEE = 9;
+    private static final int SEQUENCE = 10;
+    private static final int CURRENCY = 11;
+    private static final int HASH = 12;
+    private static final int LEDGER_INDEX = 13;
+
+    public final long id;
+
+    /**
+     * One of {@link ItemTypes}.
+     */
+    public final int type;
+
+    public final long timeCreated;
+
+    public final String account, destination;
+
+    /**
+     * XRP amounts in drops, {@link #hasAmount} tells whether the amount is given in XRP.
+     */
+    public final long balance, amount, fee;
+
+    public final boolean hasAmount;
+
+    /**
+     * Exact decimal value of an amount in the issued {@link #currency}.
+     */
+    public final String issuedValue;
+
+    /**
+     * Whole numbers shown as they are, {@code null} if they are not known.
+     */
+    public final String peers, sequence, ledgerIndex;
+
+    public final String currency, hash;
+
+    private LogRow(Cursor cursor, int[] columns) {
+        id = getLong(cursor, columns[ID]);
+        type = (int) getLong(cursor, columns[TYPE]);
+        timeCreated = getLong(cursor, columns[TIME_CREATED]);
+        account = getString(cursor, columns[ACCOUNT]);
+        destination = getString(cursor, columns[DESTINATION]);
+        balance = getLong(cursor, columns[BALANCE]);
+        issuedValue = getString(cursor, columns[ISSUED_VALUE]);
+        amount = getLong(cursor, columns[AMOUNT]);
+        hasAmount = columns[AMOUNT] >= 0 && !cursor.isNull(columns[AMOUNT]);
+        peers = getString(cursor, columns[PEERS]);
+        fee = getLong(cursor, columns[FEE]);
+        sequence = getString(cursor, columns[SEQUENCE]);
+        currency = getString(cursor, columns[CURRENCY]);
+        hash = getString(cursor, columns[HASH]);
+        ledgerIndex = getString(cursor, columns[LEDGER_INDEX]);
+    }
+
+    /**
+     * Reads all rows of a cursor.
+     *
+     * @param cursor     cursor to be read, its position is changed
+     * @param isReversed {@code true} to return the rows in the reverse order of the cursor
+     * @return rows read
+     */
+    public static LogRow[] readAll(Cursor cursor, boolean isReversed) {
+        final int[] columns = new int[PROJECTION.length];
+        for (int i = 0; i < PROJECTION.length; i++) {
+            columns[i] = cursor.getColumnIndex(PROJECTION[i]);
+        }
+
+        final LogRow[] rows = new LogRow[cursor.getCount()];
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final int position = cursor.getPosition();
+
+            rows[isReversed ? rows.length - 1 - position : position] = new LogRow(cursor, columns);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Checks whether this row comes before another one in the list, from the newest
+     * to the oldest.
+     *
+     * @param other row to be compared with
+     * @return {@code true} if this row is newer
+     */
+    public boolean isBefore(LogRow other) {
+        return timeCreated > other.timeCreated
+                || (timeCreated == other.timeCreated && id > other.id);
+    }
+
+    /**
+     * Checks whether another row shows the same content.
+     *
+     * @param other row to be compared with
+     * @return {@code true} if all columns are equal
+     */
+    public boolean isSameContent(LogRow other) {
+        return id == other.id && type == other.type && timeCreated == other.timeCreated
+                && balance == other.balance && amount == other.amount && fee == other.fee
+                && hasAmount == other.hasAmount && equals(account, other.account)
+                && equals(destination, other.destination)
+                && equals(issuedValue, other.issuedValue) && equals(peers, other.peers)
+                && equals(sequence, other.sequence) && equals(ledgerIndex, other.ledgerIndex)
+                && equals(currency, other.currency) && equals(hash, other.hash);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static long getLong(Cursor cursor, int index) {
+        return index >= 0 ? cursor.getLong(index) : 0;
+    }
+
+    private static String getString(Cursor cursor, int index) {
+        return index >= 0 ? cursor.getString(index) : null;
+    }
+}
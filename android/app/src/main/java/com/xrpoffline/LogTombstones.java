@@ -0,0 +1,310 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.os.RemoteException;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Deletes logs in two steps, so deleting thousands of them never blocks the list and can
+ * be undone.
+ * <p/>
+ * Logs are tombstoned first: their deletion time is set, which hides them from the logs view.
+ * Undo clears the time again, both are cheap updates of one column. Once undo is no longer
+ * offered, tombstoned logs are purged, i.e. their rows are deleted. Tombstones left behind,
+ * e.g. when the app was stopped, are purged by {@link LogRetention}.
+ * <p/>
+ * Every tombstoning gets a deletion time of its own, so it is undone or purged by that time
+ * alone, however many logs it hid. Logs are tombstoned by ids bound as parameters, in chunks,
+ * see {@link TextUtils#makeWhereArgs}, or by a selection, e.g. of all logs of a filter.
+ * <p/>
+ * Writes run in order on a background thread. A tombstoning or an undo is written in one
+ * transaction, a purge deletes every chunk in a transaction of its own.
+ */
+public class LogTombstones {
+
+    private static final String TAG = LogTombstones.class.getName();
+
+    // Tombstoned logs are hidden by the logs view, they are written to the table behind it
+    private static final Uri ENTRIES_URI =
+            Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOG_ENTRIES);
+
+    private static final String SELECTION_TOMBSTONED = DatabaseHelper.TIME_DELETED + " > 0";
+
+    private static final String SELECTION_TOMBSTONED_BEFORE =
+            SELECTION_TOMBSTONED + " and " + DatabaseHelper.TIME_DELETED + " < ?";
+
+    private static final String SELECTION_TOMBSTONED_AT = DatabaseHelper.TIME_DELETED + " = ?";
+
+    // Chunk of logs tombstoned at a given time, served by the time index
+    private static final String SELECTION_PURGE_CHUNK = BaseColumns._ID + " in (select "
+            + BaseColumns._ID + " from " + DatabaseHelper.TABLE_LOG_ENTRIES + " where "
+            + SELECTION_TOMBSTONED_AT + " limit " + TextUtils.MAX_WHERE_IDS + ")";
+
+    private static final String[] ID_PROJECTION = new String[]{BaseColumns._ID};
+
+    private static final ExecutorService writer =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    // Deletion time of the last tombstoning, times of later ones are greater
+    private static long lastTime;
+
+    private final ContentResolver resolver;
+
+    public LogTombstones(Context context) {
+        resolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Tombstones logs in the background. They disappear from the logs view at once.
+     *
+     * @param ids row ids of the logs
+     * @return deletion time of the logs, see {@link #restore} and {@link #purge}
+     */
+    public long tombstone(long[] ids) {
+        final long time = nextTime();
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        addUpdates(operations, ids, time, DatabaseHelper.SELECTION_LIVE);
+
+        apply(operations);
+
+        return time;
+    }
+
+    /**
+     * Tombstones live logs that match a selection in the background, except some of them.
+     * They disappear from the logs view at once.
+     *
+     * @param selection     selection over columns of log entries, {@code null} for all logs
+     * @param selectionArgs arguments of the selection
+     * @param keptIds       row ids of logs left live even if they match
+     * @return deletion time of the logs, see {@link #restore} and {@link #purge}
+     */
+    public long tombstone(String selection, String[] selectionArgs, long[] keptIds) {
+        final long time = nextTime();
+
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.TIME_DELETED, time);
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(ENTRIES_URI)
+                .withValues(values)
+                .withSelection(selection != null ? DatabaseHelper.SELECTION_LIVE + " and ("
+                        + selection + ")" : DatabaseHelper.SELECTION_LIVE, selectionArgs)
+                .build());
+
+        // Kept logs are brought back in the same transaction, they are never seen deleted
+        addUpdates(operations, keptIds, 0, DatabaseHelper.TIME_DELETED + " = " + time);
+
+        apply(operations);
+
+        return time;
+    }
+
+    /**
+     * Restores logs tombstoned at given times in the background, unless they were purged
+     * already.
+     *
+     * @param times deletion times returned by {@link #tombstone}
+     */
+    public void restore(long[] times) {
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.TIME_DELETED, 0);
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+
+        for (long time : times) {
+            operations.add(ContentProviderOperation.newUpdate(ENTRIES_URI)
+                    .withValues(values)
+                    .withSelection(SELECTION_TOMBSTONED_AT, new String[]{String.valueOf(time)})
+                    .build());
+        }
+
+        apply(operations);
+    }
+
+    /**
+     * Purges logs tombstoned at given times in the background. Logs restored meanwhile
+     * are kept.
+     *
+     * @param times deletion times returned by {@link #tombstone}
+     */
+    public void purge(long[] times) {
+        final long[] purged = times.clone();
+
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (long time : purged) {
+                        deleteAt(time);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not purge logs", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Purges all logs tombstoned before a given time. Accesses the database, should not
+     * be called from the main thread.
+     *
+     * @param time time since epoch in milliseconds
+     * @return number of logs purged
+     */
+    public int purgeBefore(long time) {
+        final Uri uri = ENTRIES_URI.buildUpon()
+                .appendQueryParameter(DataProvider.QUERY_LIMIT,
+                        String.valueOf(TextUtils.MAX_WHERE_IDS))
+                .build();
+
+        final String[] args = new String[]{String.valueOf(time)};
+
+        int count = 0;
+
+        while (true) {
+            final long[] ids;
+
+            final Cursor cursor = resolver.query(uri, ID_PROJECTION, SELECTION_TOMBSTONED_BEFORE,
+                    args, null);
+
+            if (cursor == null) {
+                break;
+            }
+
+            try {
+                ids = new long[cursor.getCount()];
+
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            count += delete(ids);
+
+            if (ids.length < TextUtils.MAX_WHERE_IDS) {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns a deletion time greater than those of earlier tombstonings, so they are never
+     * mixed up even if made within the same millisecond.
+     */
+    private static synchronized long nextTime() {
+        lastTime = Math.max(System.currentTimeMillis(), lastTime + 1);
+
+        return lastTime;
+    }
+
+    private static void addUpdates(ArrayList<ContentProviderOperation> operations, long[] ids,
+                                   long time, String selection) {
+
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.TIME_DELETED, time);
+
+        for (String[] args : TextUtils.makeWhereArgs(ids)) {
+            operations.add(ContentProviderOperation.newUpdate(ENTRIES_URI)
+                    .withValues(values)
+                    .withSelection(selection + " and "
+                            + TextUtils.makeWhereClause(args.length), args)
+                    .build());
+        }
+    }
+
+    private void apply(final ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    resolver.applyBatch(DataProvider.CONTENT_URI.getAuthority(), operations);
+                } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+                    Log.e(TAG, "Could not update tombstones", e);
+                }
+            }
+        });
+    }
+
+    private int deleteAt(long time) {
+        final String[] args = new String[]{String.valueOf(time)};
+
+        int count = 0;
+
+        while (true) {
+            final int deleted = resolver.delete(ENTRIES_URI, SELECTION_PURGE_CHUNK, args);
+            count += deleted;
+
+            if (deleted < TextUtils.MAX_WHERE_IDS) {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    private int delete(long[] ids) {
+        int count = 0;
+
+        for (String[] args : TextUtils.makeWhereArgs(ids)) {
+            count += resolver.delete(ENTRIES_URI, SELECTION_TOMBSTONED + " and "
+                    + TextUtils.makeWhereClause(args.length), args);
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import java.util.Arrays;
+
+/**
+ * Set of {@code long} values, e.g. row ids, kept in a single array without boxing.
+ * <p/>
+ * Values are placed by open addressing with linear probing, a free slot holds zero and
+ * a zero value is tracked apart. The table is kept at most half full, so a lookup probes
+ * only a few slots. Removal shifts later values of a probe run back, no slot is ever
+ * left marked as deleted.
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] slots;
+    private boolean hasZero;
+    private int size;
+
+    public LongHashSet() {
+        this(0);
+    }
+
+    public LongHashSet(int expectedSize) {
+        slots = new long[getCapacity(expectedSize)];
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value value to be added
+     * @return {@code true} if the value was not in the set yet
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (hasZero) {
+                return false;
+            }
+
+            hasZero = true;
+            size++;
+
+            return true;
+        }
+
+        final int mask = slots.length - 1;
+
+        int index = getSlot(value);
+        while (slots[index] != 0) {
+            if (slots[index] == value) {
+                return false;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        slots[index] = value;
+        size++;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds all values of an array.
+     *
+     * @param values values to be added
+     */
+    public void addAll(long[] values) {
+        for (long value : values) {
+            add(value);
+        }
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param value value to be removed
+     * @return {@code true} if the value was in the set
+     */
+    public boolean remove(long value) {
+        if (value == 0) {
+            if (!hasZero) {
+                return false;
+            }
+
+            hasZero = false;
+            size--;
+
+            return true;
+        }
+
+        final int mask = slots.length - 1;
+
+        int gap = getSlot(value);
+        while (slots[gap] != value) {
+            if (slots[gap] == 0) {
+                return false;
+            }
+
+            gap = (gap + 1) & mask;
+        }
+
+        // Values probed past the gap move back into it, unless their probe starts after it
+        for (int index = (gap + 1) & mask; slots[index] != 0; index = (index + 1) & mask) {
+            final int slot = getSlot(slots[index]);
+
+            if (((index - slot) & mask) >= ((index - gap) & mask)) {
+                slots[gap] = slots[index];
+                gap = index;
+            }
+        }
+
+        slots[gap] = 0;
+        size--;
+
+        return true;
+    }
+
+    /**
+     * Checks whether a value is in the set.
+     *
+     * @param value value to be checked
+     * @return {@code true} if the set holds the value
+     */
+    public boolean contains(long value) {
+        if (value == 0) {
+            return hasZero;
+        }
+
+        final int mask = slots.length - 1;
+
+        for (int index = getSlot(value); slots[index] != 0; index = (index + 1) & mask) {
+            if (slots[index] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return number of values in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the set is empty.
+     *
+     * @return {@code true} if the set holds no values
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values. The table is kept for the next values.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(slots, 0);
+
+            hasZero = false;
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns all values, e.g. to be stored in a {@link android.os.Bundle}.
+     *
+     * @return values in no particular order
+     */
+    public long[] toArray() {
+        final long[] values = new long[size];
+
+        int count = 0;
+        if (hasZero) {
+            count++;
+        }
+
+        for (long value : slots) {
+            if (value != 0) {
+                values[count++] = value;
+            }
+        }
+
+        return values;
+    }
+
+    private int getSlot(long value) {
+        // Row ids are sequential, mixing spreads them over the whole table
+        final long hash = value * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash ^ hash >>> 32) & (slots.length - 1);
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldSlots = slots;
+        slots = new long[capacity];
+
+        final int mask = capacity - 1;
+
+        for (long value : oldSlots) {
+            if (value != 0) {
+                int index = getSlot(value);
+                while (slots[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+
+                slots[index] = value;
+            }
+        }
+    }
+
+    private static int getCapacity(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+}
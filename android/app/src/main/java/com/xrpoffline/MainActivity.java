@@ -17,14 +17,12 @@
 package com.xrpoffline;
 
 import android.content.BroadcastReceiver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.os.Bundle;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -35,11 +33,6 @@ public class MainActivity extends AppCompatActivity implements
         QrScannerFragment.OnScanFinishedListener,
         MainFragment.Callback {
 
-    /**
-     * URL of the Ripple WebSocket server.
-     */
-    public static final String URL = "wss://s1.ripple.com:51233";
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -76,11 +69,7 @@ public class MainActivity extends AppCompatActivity implements
 
         registerReceiver(globalReceiver, globalFilter);
 
-        final IntentFilter localFilter = new IntentFilter();
-        localFilter.addAction(ParserService.ACTION_PARSE_FINISHED);
-
-        LocalBroadcastManager.getInstance(getApplicationContext())
-                .registerReceiver(localReceiver, localFilter);
+        EventBus.getInstance().subscribe(EventBus.EVENT_PARSE_ERROR, parserSubscriber, true);
 
         adjustActionBar();
     }
@@ -91,8 +80,7 @@ public class MainActivity extends AppCompatActivity implements
 
         unregisterReceiver(globalReceiver);
 
-        LocalBroadcastManager.getInstance(getApplicationContext())
-                .unregisterReceiver(localReceiver);
+        EventBus.getInstance().unsubscribe(parserSubscriber);
     }
 
     private final BroadcastReceiver globalReceiver = new BroadcastReceiver() {
@@ -112,9 +100,9 @@ public class MainActivity extends AppCompatActivity implements
                         if (isConnectedToNetwork) {
                             WebSocketClientFragment client = getWebSocketClientFragment();
                             if (client == null) {
-                                createWebSocketClientFragment(URL);
+                                createWebSocketClientFragment();
                             } else if (!client.isConnected() && !client.isForceDisconnected()) {
-                                client.connect(URL);
+                                client.connect();
                             }
                         }
                     }
@@ -125,28 +113,14 @@ public class MainActivity extends AppCompatActivity implements
         }
     };
 
-    private final BroadcastReceiver localReceiver = new BroadcastReceiver() {
+    private final EventBus.Subscriber parserSubscriber = new EventBus.Subscriber() {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            switch (action) {
-                case ParserService.ACTION_PARSE_FINISHED: {
-                    final String errorMessage = intent.getStringExtra("error_message");
-                    if (errorMessage != null) {
-                        Toast.makeText(getApplicationContext(), errorMessage,
-                                Toast.LENGTH_SHORT).show();
-                    } else {
-                        final ContentValues values = intent.getParcelableExtra("values");
-                        if (values != null) {
-                            final MainFragment main = (MainFragment) getSupportFragmentManager()
-                                    .findFragmentByTag("main");
-
-                            if (main != null) {
-                                main.insertLog(values);
-                            }
-                        }
-                    }
+        public void onEvent(EventBus.Event event) {
+            switch (event.type) {
+                case EventBus.EVENT_PARSE_ERROR: {
+                    Toast.makeText(getApplicationContext(), event.text,
+                            Toast.LENGTH_SHORT).show();
 
                     break;
                 }
@@ -154,8 +128,9 @@ public class MainActivity extends AppCompatActivity implements
         }
     };
 
-    private void createWebSocketClientFragment(String url) {
-        final WebSocketClientFragment client = WebSocketClientFragment.newInstance(url);
+    private void createWebSocketClientFragment() {
+        // Server will be picked from the pool
+        final WebSocketClientFragment client = WebSocketClientFragment.newInstance(null);
 
         getSupportFragmentManager().beginTransaction()
                 .add(client, "client")
@@ -178,16 +153,6 @@ public class MainActivity extends AppCompatActivity implements
         invalidateOptionsMenu();
     }
 
-    @Override
-    public void onMessage(String message) {
-        if (message != null) {
-            final Intent parser = new Intent(getApplicationContext(), ParserService.class);
-            parser.putExtra("text", message);
-
-            getApplicationContext().startService(parser);
-        }
-    }
-
     @Override
     public void onConnectionClosed(String reason) {
         invalidateOptionsMenu();
@@ -195,15 +160,25 @@ public class MainActivity extends AppCompatActivity implements
 
     @Override
     public void onConnectionError(String errorMessage) {
+        // Service reconnects on its own, just keep the connection status up to date
+        invalidateOptionsMenu();
     }
 
     @Override
     public void onScanFinished(String content) {
         getSupportFragmentManager().popBackStack();
 
+        // Command is kept in the outbox until it is sent, so it survives lost connections
         final WebSocketClientFragment client = getWebSocketClientFragment();
         if (client != null) {
-            client.send(content);
+            client.enqueue(content);
+        } else {
+            new Outbox(getApplicationContext()).addInBackground(content);
+        }
+
+        if (client == null || !client.isConnected()) {
+            Toast.makeText(getApplicationContext(), R.string.notify_command_queued,
+                    Toast.LENGTH_SHORT).show();
         }
     }
 
@@ -227,9 +202,9 @@ public class MainActivity extends AppCompatActivity implements
 
                     if (connected) {
                         if (client == null) {
-                            createWebSocketClientFragment(URL);
+                            createWebSocketClientFragment();
                         } else {
-                            client.connect(URL);
+                            client.connect();
                         }
                     }
                 }
@@ -16,21 +16,22 @@
 
 package com.xrpoffline;
 
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.view.ActionMode;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -39,14 +40,24 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Fragment that manages the main log list.
+ * <p/>
+ * The list can be searched and filtered by item type and time. Search queries are applied
+ * once typing pauses, each one restarts the loader, which cancels a load still running.
+ * <p/>
+ * Deleted logs are tombstoned at once, so the list reloads without them. Undo restores them
+ * while the {@link Snackbar} is shown, once it is gone they are purged, see
+ * {@link LogTombstones}.
  */
 public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureListener,
-        LoaderManager.LoaderCallbacks<Cursor>, ActionMode.Callback {
+        LoaderManager.LoaderCallbacks<LogPager>, ActionMode.Callback,
+        SearchView.OnQueryTextListener {
+
+    // Delay after the last keystroke before a query is searched for
+    private static final long SEARCH_DELAY = 300;
 
     /**
      * Interface definition for a callback to be invoked on some UI interactions.
@@ -84,6 +95,27 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
 
     private Callback callback;
 
+    private LogTombstones tombstones;
+
+    // Deletion times of logs tombstoned since the Snackbar was shown, restored on undo
+    private final LongHashSet pendingTimes = new LongHashSet();
+    private int pendingCount;
+
+    // Filter criteria, time ranges are counted back from when the filter is applied
+    private String query = "";
+    private int typeItemId = R.id.filter_type_any;
+    private int timeItemId = R.id.filter_time_any;
+
+    private final Handler handler = new Handler();
+
+    private final Runnable searchTask = new Runnable() {
+
+        @Override
+        public void run() {
+            applyFilter();
+        }
+    };
+
     @Override
     public void onAttach(Context context) {
         super.onAttach(context);
@@ -120,66 +152,90 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
         });
 
         adapter = new ItemAdapter(getContext(), this);
+        tombstones = new LogTombstones(getContext());
 
         if (savedInstanceState != null) {
-            final List<Integer> hiddenItems =
-                    savedInstanceState.getIntegerArrayList("hidden_items");
-
-            if (hiddenItems != null) {
-                adapter.hideItems(hiddenItems);
+            if (savedInstanceState.containsKey("query")) {
+                query = savedInstanceState.getString("query");
             }
 
-            final List<Integer> selectedItems =
-                    savedInstanceState.getIntegerArrayList("selected_items");
-
-            if (selectedItems != null) {
-                adapter.selectItems(selectedItems);
+            typeItemId = savedInstanceState.getInt("type_item", typeItemId);
+            timeItemId = savedInstanceState.getInt("time_item", timeItemId);
 
+            if (adapter.readSelectionFrom(savedInstanceState)) {
                 actionMode = ((AppCompatActivity) getActivity()).startSupportActionMode(this);
                 notifySelectionChanged(adapter.getSelectedItemCount());
             }
+
+            final long[] deletedTimes = savedInstanceState.getLongArray("pending_times");
+
+            if (deletedTimes != null) {
+                pendingTimes.addAll(deletedTimes);
+                pendingCount = savedInstanceState.getInt("pending_count");
+            }
         }
 
-        final RecyclerView list = (LazyRecyclerView) root.findViewById(R.id.main_list);
+        final LazyRecyclerView list = (LazyRecyclerView) root.findViewById(R.id.main_list);
         list.setLayoutManager(new ExtraLayoutManager(getContext()));
         list.getItemAnimator().setRemoveDuration(0);
         list.setAdapter(adapter);
 
+        // Most logs are transactions, a fling through them should not inflate any card
+        list.preinflate(ItemTypes.TYPE_TRANSACTION, 5);
+        list.preinflate(ItemTypes.TYPE_LEDGER, 2);
+        list.preinflate(ItemTypes.TYPE_STATE, 1);
+        list.preinflate(ItemTypes.TYPE_INFO, 1);
+        list.preinflate(ItemTypes.TYPE_TRUST_LINE, 1);
+
         final ItemTouchHelper itemTouchHelper =
                 new ItemTouchHelper(new SimpleItemTouchHelperCallback(adapter));
 
         itemTouchHelper.attachToRecyclerView(list);
 
-        final Bundle args = new Bundle();
-        // Sort logs by date
-        args.putString("sort_order", DatabaseHelper.TIME_CREATED + " desc");
-
-        getActivity().getSupportLoaderManager().initLoader(0, args, this);
+        // Logs are paged from the newest to the oldest
+        getActivity().getSupportLoaderManager().initLoader(0, createLoaderArgs(), this);
 
         return root;
     }
 
     @Override
     public void onSaveInstanceState(Bundle outState) {
+        outState.putString("query", query);
+        outState.putInt("type_item", typeItemId);
+        outState.putInt("time_item", timeItemId);
+
         if (adapter != null) {
-            if (adapter.getHiddenItemCount() > 0) {
-                outState.putIntegerArrayList("hidden_items",
-                        (ArrayList<Integer>) adapter.getHiddenItems());
-            }
+            adapter.writeSelectionTo(outState);
+        }
 
-            if (adapter.getSelectedItemCount() > 0) {
-                outState.putIntegerArrayList("selected_items",
-                        (ArrayList<Integer>) adapter.getSelectedItems());
-            }
+        if (!pendingTimes.isEmpty()) {
+            outState.putLongArray("pending_times", pendingTimes.toArray());
+            outState.putInt("pending_count", pendingCount);
         }
 
         super.onSaveInstanceState(outState);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        // Undo is offered again after a configuration change
+        if (!pendingTimes.isEmpty() && snackbar == null) {
+            notifyPendingDismisses(pendingCount);
+        }
+    }
+
     @Override
     public void onDestroy() {
-        if (snackbar != null) {
-            snackbar.setCallback(null);
+        handler.removeCallbacks(searchTask);
+
+        if (isChangingConfigurations()) {
+            // Logs stay tombstoned, the new fragment offers undo for them
+            dismissSnackbar();
+        } else {
+            // Undo is gone with the Snackbar
+            commitPendingDismisses();
         }
 
         super.onDestroy();
@@ -190,10 +246,26 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
         super.onCreateOptionsMenu(menu, inflater);
 
         inflater.inflate(R.menu.menu_main, menu);
+
+        final SearchView searchView =
+                (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+
+        searchView.setQueryHint(getString(R.string.search_hint));
+
+        if (query.length() > 0) {
+            searchView.setIconified(false);
+            searchView.setQuery(query, false);
+            searchView.clearFocus();
+        }
+
+        searchView.setOnQueryTextListener(this);
     }
 
     @Override
     public void onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(typeItemId).setChecked(true);
+        menu.findItem(timeItemId).setChecked(true);
+
         final MenuItem item = menu.findItem(R.id.action_connect);
 
         if (callback.isWebSocketClientConnected()) {
@@ -218,7 +290,39 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
-        return callback.onMenuItemClick(item.getItemId());
+        if (item.getGroupId() == R.id.group_filter_type) {
+            typeItemId = item.getItemId();
+        } else if (item.getGroupId() == R.id.group_filter_time) {
+            timeItemId = item.getItemId();
+        } else {
+            return callback.onMenuItemClick(item.getItemId());
+        }
+
+        item.setChecked(true);
+        applyFilter();
+
+        return true;
+    }
+
+    @Override
+    public boolean onQueryTextChange(String newText) {
+        if (!newText.equals(query)) {
+            query = newText;
+
+            // Only the last query typed is searched for
+            handler.removeCallbacks(searchTask);
+            handler.postDelayed(searchTask, SEARCH_DELAY);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean onQueryTextSubmit(String text) {
+        query = text;
+        applyFilter();
+
+        return false;
     }
 
     @Override
@@ -247,7 +351,10 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
                 return true;
             }
             case R.id.action_delete: {
-                adapter.hideItems(adapter.getSelectedItems());
+                final int count = adapter.getSelectedItemCount();
+                addPendingDismiss(adapter.tombstoneSelectedItems(tombstones), count);
+
+                adapter.hideSelectedItems();
 
                 mode.finish();
 
@@ -285,6 +392,8 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
             } else {
                 notifySelectionChanged(count);
             }
+        } else {
+            adapter.toggleItemExpansion(position);
         }
     }
 
@@ -299,52 +408,174 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
 
     @Override
     public void onItemSwipe(int position) {
-        notifyPendingDismisses(adapter.getHiddenItemCount());
+        if (position != RecyclerView.NO_POSITION) {
+            deleteLogs(new long[]{adapter.getItemId(position)});
+        }
+
+        notifyPendingDismisses(pendingCount);
     }
 
     /**
-     * Inserts a new log (item) to the main list.
+     * Delete logs (items) from main list. Logs are tombstoned in the background, they can be
+     * restored until the {@link Snackbar} is gone.
      *
-     * @param values log attributes
+     * @param ids row ids o items to be deleted
      */
-    public void insertLog(ContentValues values) {
-        final Uri uri = Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOGS);
-        getContext().getContentResolver().insert(uri, values);
+    public void deleteLogs(long[] ids) {
+        addPendingDismiss(tombstones.tombstone(ids), ids.length);
     }
 
     /**
-     * Delete logs (items) from main list.
+     * Adds tombstoned logs to those the {@link Snackbar} offers to restore.
      *
-     * @param ids row ids o items to be deleted
+     * @param time  deletion time of the logs, {@code 0} if none were tombstoned
+     * @param count number of logs
      */
-    public void deleteLogs(List<Long> ids) {
-        final String selection = TextUtils.makeWhereClause(ids);
-
-        final Uri uri = Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOGS);
-        getContext().getContentResolver().delete(uri, selection, null);
+    private void addPendingDismiss(long time, int count) {
+        if (time > 0) {
+            pendingTimes.add(time);
+            pendingCount += count;
+        }
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    public Loader<LogPager> onCreateLoader(int id, Bundle args) {
         final Uri uri = Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOGS);
 
         if (args != null) {
-            return new CursorLoader(getContext(), uri, args.getStringArray("projection"),
-                    args.getString("selection"), args.getStringArray("selection_args"),
-                    args.getString("sort_order"));
+            final LogFilter filter = LogFilter.readFrom(args);
+
+            return new LogLoader(getContext(), uri, args.getStringArray("projection"),
+                    filter.getSelection(), filter.getSelectionArgs());
         }
 
         return null;
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        adapter.swapCursor(cursor);
+    public void onLoadFinished(Loader<LogPager> loader, LogPager pager) {
+        adapter.swapPager(pager);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        adapter.swapCursor(null);
+    public void onLoaderReset(Loader<LogPager> loader) {
+        adapter.swapPager(null);
+    }
+
+    /**
+     * Creates arguments of the log loader from the current filter criteria.
+     *
+     * @return loader arguments
+     */
+    private Bundle createLoaderArgs() {
+        final long timeRange = getTimeRange(timeItemId);
+        final LogFilter filter = new LogFilter(query, getFilterType(typeItemId),
+                timeRange > 0 ? System.currentTimeMillis() - timeRange : 0, Long.MAX_VALUE);
+
+        final Bundle args = new Bundle();
+        // Read only the columns shown on collapsed cards
+        args.putStringArray("projection", ItemAdapter.PROJECTION);
+        filter.writeTo(args);
+
+        return args;
+    }
+
+    /**
+     * Reloads the list with the current filter criteria.
+     */
+    private void applyFilter() {
+        handler.removeCallbacks(searchTask);
+
+        // Positions of hidden and selected items do not carry over to another list
+        commitPendingDismisses();
+
+        if (actionMode != null) {
+            actionMode.finish();
+        }
+
+        getActivity().getSupportLoaderManager().restartLoader(0, createLoaderArgs(), this);
+    }
+
+    /**
+     * Purges logs deleted by swipes right away instead of when the {@link Snackbar} is gone.
+     */
+    private void commitPendingDismisses() {
+        dismissSnackbar();
+
+        purgePendingLogs();
+    }
+
+    /**
+     * Dismisses the {@link Snackbar} without purging the logs it offers to restore.
+     */
+    private void dismissSnackbar() {
+        if (snackbar != null) {
+            snackbar.setCallback(null);
+            snackbar.dismiss();
+            snackbar = null;
+        }
+    }
+
+    /**
+     * Purges logs that can no longer be restored.
+     */
+    private void purgePendingLogs() {
+        if (!pendingTimes.isEmpty()) {
+            tombstones.purge(pendingTimes.toArray());
+            pendingTimes.clear();
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * Checks whether the activity is destroyed only to be recreated with a new configuration.
+     */
+    private boolean isChangingConfigurations() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && getActivity() != null && getActivity().isChangingConfigurations();
+    }
+
+    private static int getFilterType(int itemId) {
+        switch (itemId) {
+            case R.id.filter_type_info: {
+                return ItemTypes.TYPE_INFO;
+            }
+            case R.id.filter_type_transaction: {
+                return ItemTypes.TYPE_TRANSACTION;
+            }
+            case R.id.filter_type_state: {
+                return ItemTypes.TYPE_STATE;
+            }
+            case R.id.filter_type_ledger: {
+                return ItemTypes.TYPE_LEDGER;
+            }
+            case R.id.filter_type_trust_line: {
+                return ItemTypes.TYPE_TRUST_LINE;
+            }
+            default: {
+                return LogFilter.TYPE_ANY;
+            }
+        }
+    }
+
+    private static long getTimeRange(int itemId) {
+        switch (itemId) {
+            case R.id.filter_time_hour: {
+                return TimeUnit.HOURS.toMillis(1);
+            }
+            case R.id.filter_time_day: {
+                return TimeUnit.DAYS.toMillis(1);
+            }
+            case R.id.filter_time_week: {
+                return TimeUnit.DAYS.toMillis(7);
+            }
+            case R.id.filter_time_month: {
+                return TimeUnit.DAYS.toMillis(30);
+            }
+            default: {
+                return 0;
+            }
+        }
     }
 
     /**
@@ -359,7 +590,7 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
     /**
      * Shows a {@link Snackbar} with removed items count.
      * <p/>
-     * Items will be deleted from database on {@code Snackbar} dismiss.
+     * Deleted items are purged from database on {@code Snackbar} dismiss.
      *
      * @param count number of items deleted
      */
@@ -373,6 +604,10 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
 
                         @Override
                         public void onClick(View view) {
+                            tombstones.restore(pendingTimes.toArray());
+                            pendingTimes.clear();
+                            pendingCount = 0;
+
                             adapter.restoreItems();
                         }
                     })
@@ -382,7 +617,7 @@ public class MainFragment extends Fragment implements ItemAdapter.OnItemGestureL
                         public void onDismissed(Snackbar snackbar, int event) {
                             super.onDismissed(snackbar, event);
 
-                            deleteLogs(adapter.getIdsForItems(adapter.getHiddenItems()));
+                            purgePendingLogs();
                         }
                     });
         } else {
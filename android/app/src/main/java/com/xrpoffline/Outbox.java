@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent queue of commands waiting to be sent to the server.
+ * <p/>
+ * Commands are stored in {@link DatabaseHelper#TABLE_OUTBOX} through {@link DataProvider},
+ * so they survive lost connections and restarts. Methods of this class access the database
+ * and, except {@link #addInBackground(String)}, should not be called from the main thread.
+ */
+public class Outbox implements OutboxStatus {
+
+    private static final Uri URI =
+            Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_OUTBOX);
+
+    private static final String SELECTION_FINISHED =
+            DatabaseHelper.STATUS + " in (" + STATUS_DONE + ", " + STATUS_FAILED + ")";
+
+    private final ContentResolver resolver;
+
+    public Outbox(Context context) {
+        resolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Adds a command to the end of the queue.
+     *
+     * @param command command to be sent
+     * @return row id of the queued command, or {@code -1} if the command could not be stored
+     */
+    public long add(String command) {
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COMMAND, command);
+        values.put(DatabaseHelper.STATUS, STATUS_QUEUED);
+        values.put(DatabaseHelper.TIME_CREATED, System.currentTimeMillis());
+
+        final Uri uri = resolver.insert(URI, values);
+
+        return uri != null ? ContentUris.parseId(uri) : -1;
+    }
+
+    /**
+     * Adds a command to the end of the queue on a background thread.
+     *
+     * @param command command to be sent
+     */
+    public void addInBackground(final String command) {
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                add(command);
+            }
+        }).start();
+    }
+
+    /**
+     * Returns all queued commands in order and marks them as sent, with an update per chunk
+     * of ids.
+     *
+     * @return list of commands to be sent
+     */
+    public List<Entry> takeQueued() {
+        final List<Entry> entries = new ArrayList<>();
+
+        final Cursor cursor = resolver.query(URI,
+                new String[]{BaseColumns._ID, DatabaseHelper.COMMAND},
+                DatabaseHelper.STATUS + " = " + STATUS_QUEUED, null, BaseColumns._ID);
+
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    entries.add(new Entry(cursor.getLong(0), cursor.getString(1)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        setStatus(entries, STATUS_SENT);
+
+        return entries;
+    }
+
+    /**
+     * Returns taken commands back to the queue, e.g. the ones left when the connection
+     * was lost while they were sent.
+     *
+     * @param entries commands to be queued again
+     */
+    public void requeue(List<Entry> entries) {
+        setStatus(entries, STATUS_QUEUED);
+    }
+
+    private void setStatus(List<Entry> entries, int status) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        final List<Long> ids = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            ids.add(entry.id);
+        }
+
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.STATUS, status);
+
+        for (String[] args : TextUtils.makeWhereArgs(ids)) {
+            resolver.update(URI, values, TextUtils.makeWhereClause(args.length), args);
+        }
+    }
+
+    /**
+     * Changes the status of a command.
+     *
+     * @param id      row id of the command
+     * @param status  one of {@code STATUS_*} constants
+     * @param message reply or error message, may be {@code null}
+     */
+    public void setStatus(long id, int status, String message) {
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.STATUS, status);
+        values.put(DatabaseHelper.MESSAGE, message);
+
+        resolver.update(ContentUris.withAppendedId(URI, id), values, null, null);
+    }
+
+    /**
+     * Deletes commands that were answered or failed, the ones created before a given time
+     * and the ones past a given number of the newest. Queued and sent commands are kept.
+     *
+     * @param time     time since epoch in milliseconds
+     * @param maxCount number of the newest finished commands kept
+     * @return number of commands deleted
+     */
+    public int pruneFinished(long time, int maxCount) {
+        final String[] args = new String[]{String.valueOf(time), String.valueOf(maxCount)};
+
+        return resolver.delete(URI, SELECTION_FINISHED + " and (" + DatabaseHelper.TIME_CREATED
+                + " < ? or " + BaseColumns._ID + " <= (select " + BaseColumns._ID + " from "
+                + DatabaseHelper.TABLE_OUTBOX + " where " + SELECTION_FINISHED + " order by "
+                + BaseColumns._ID + " desc limit 1 offset ?))", args);
+    }
+
+    /**
+     * Returns commands that were sent, but not answered, back to the queue.
+     * <p/>
+     * Submitting a signed transaction twice is harmless, the ledger applies it only once.
+     */
+    public void requeueSent() {
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.STATUS, STATUS_QUEUED);
+
+        resolver.update(URI, values, DatabaseHelper.STATUS + " = " + STATUS_SENT, null);
+    }
+
+    /**
+     * A queued command.
+     */
+    public static class Entry {
+
+        public final long id;
+        public final String command;
+
+        public Entry(long id, String command) {
+            this.id = id;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+/**
+ * Simple interface that specifies states of outbox commands.
+ */
+public interface OutboxStatus {
+    int STATUS_QUEUED = 0;
+    int STATUS_SENT = 1;
+    int STATUS_DONE = 2;
+    int STATUS_FAILED = 3;
+}
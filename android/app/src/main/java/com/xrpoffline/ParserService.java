@@ -16,127 +16,469 @@
 
 package com.xrpoffline;
 
-import android.app.IntentService;
+import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
 
 import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Background service used to parse JSON object received from Ripple server.
+ * Parsing pipeline for JSON objects received from Ripple server.
+ * <p/>
+ * Messages are taken from the {@link EventBus} on its dispatcher thread, so they never leave
+ * the process. They are parsed in parallel by a pool of worker threads, JSON is read with
+ * a {@link JsonTokenizer} by the {@link ResponseHandler} registered for the command of the
+ * request. A single commit thread inserts the resulting {@link ContentValues} into
+ * {@link DataProvider} strictly in order of arrival.
  * <p/>
- * JSON will be parsed to {@link ContentValues} that can be inserted into SQLite database.
+ * The number of messages in flight is bounded. When the pipeline is full, replies to requests
+ * block the event bus until there is room again, while messages from subscription streams
+ * are either dropped or block as well, depending on the backpressure policy.
  */
-public class ParserService extends IntentService {
+public class ParserService implements EventBus.Subscriber {
 
     private static final String TAG = ParserService.class.getName();
 
-    // Broadcast action to be called on parsing finished
-    public static final String ACTION_PARSE_FINISHED = "com.xrpoffline.action.PARSE_FINISHED";
+    // Backpressure policies for messages that are not replies to requests
+    public static final int BACKPRESSURE_BLOCK = 0;
+    public static final int BACKPRESSURE_DROP = 1;
+
+    // Maximum number of messages in flight, must be a power of two
+    private static final int CAPACITY = 64;
+
+    // Upper limit of the default worker count
+    private static final int MAX_DEFAULT_WORKERS = 4;
+
+    // Names read from replies, in order of the switch cases that handle them
+    private static final String[] RESPONSE_NAMES = {"type", "error_message", "result"};
 
-    public ParserService() {
-        super(TAG);
+    /**
+     * Message moving through the pipeline, slots are reused.
+     */
+    private static final class Job {
+
+        int id;
+        long latency;
+        String text;
+        String command;
+        long timeCreated;
+
+        boolean isParsed;
+        List<ContentValues> rows;
+        String error;
+
+        void clear() {
+            text = null;
+            command = null;
+            isParsed = false;
+            rows = null;
+            error = null;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+
+    private final EventBus bus = EventBus.getInstance();
+
+    private final int workerCount;
+    private final int backpressure;
+
+    private final Thread[] threads;
+
+    private final Job[] jobs = new Job[CAPACITY];
+    private final Object lock = new Object();
+
+    // Sequences of the next job to be submitted, parsed and committed
+    private long submitted;
+    private long taken;
+    private long committed;
+
+    private boolean isRunning;
+
+    // Stream messages dropped since the last warning
+    private int dropped;
+
+    /**
+     * Creates a new parsing pipeline with the default worker count, that drops stream messages
+     * when it is full.
+     *
+     * @param context application context
+     */
+    public ParserService(Context context) {
+        this(context, getDefaultWorkerCount(), BACKPRESSURE_DROP);
+    }
+
+    /**
+     * Creates a new parsing pipeline.
+     *
+     * @param context      application context
+     * @param workerCount  number of threads parsing messages in parallel
+     * @param backpressure one of {@code BACKPRESSURE_*} constants, applied to messages that are
+     *                     not replies to requests
+     */
+    public ParserService(Context context, int workerCount, int backpressure) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+
+        resolver = context.getContentResolver();
+        uri = Uri.withAppendedPath(DataProvider.CONTENT_URI, DatabaseHelper.TABLE_LOGS);
+
+        this.workerCount = workerCount;
+        this.backpressure = backpressure;
+
+        threads = new Thread[workerCount + 1];
+
+        for (int i = 0; i < CAPACITY; i++) {
+            jobs[i] = new Job();
+        }
+    }
+
+    /**
+     * Returns the worker count that leaves one core to the main and WebSocket threads.
+     *
+     * @return number of workers
+     */
+    public static int getDefaultWorkerCount() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        return Math.max(1, Math.min(MAX_DEFAULT_WORKERS, cores - 1));
+    }
+
+    /**
+     * Starts parsing messages received from server.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (isRunning) {
+                return;
+            }
+
+            isRunning = true;
+        }
+
+        for (int i = 0; i < workerCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                    work();
+                }
+            }, TAG + "-worker-" + i);
+        }
+
+        threads[workerCount] = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                commit();
+            }
+        }, TAG + "-commit");
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        bus.subscribe(EventBus.EVENT_MESSAGE, this, false);
+    }
+
+    /**
+     * Stops parsing messages received from server.
+     * <p/>
+     * Messages already accepted are still parsed and committed in the background.
+     */
+    public void stop() {
+        bus.unsubscribe(this);
+
+        synchronized (lock) {
+            isRunning = false;
+
+            lock.notifyAll();
+        }
     }
 
     @Override
-    public void onHandleIntent(Intent intent) {
-        String errorMessage = null;
-        ContentValues values = null;
+    public void onEvent(EventBus.Event event) {
+        if (event.text != null) {
+            submit(event);
+        }
+    }
+
+    /**
+     * Accepts a message into the pipeline, applying backpressure when it is full.
+     *
+     * @param event message event
+     */
+    private void submit(EventBus.Event event) {
+        final boolean isReply = event.id != WebSocketClientService.NO_ID;
+
+        synchronized (lock) {
+            while (isRunning && submitted - committed == CAPACITY) {
+                if (!isReply && backpressure == BACKPRESSURE_DROP) {
+                    if (dropped++ == 0) {
+                        Log.w(TAG, "Pipeline is full, dropping stream messages");
+                    }
+
+                    return;
+                }
 
-        final String text = intent.getStringExtra("text");
-        if (text != null) {
-            try {
                 try {
-                    final JSONObject json = new JSONObject(text);
-
-                    // Check for an possible error first
-                    final String error = json.optString("error_message", null);
-                    if (error != null) {
-                        throw new RuntimeException(error);
-                    } else {
-                        values = new ContentValues();
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+            }
+
+            if (!isRunning) {
+                return;
+            }
+
+            if (dropped > 0) {
+                Log.w(TAG, dropped + " stream messages dropped");
+
+                dropped = 0;
+            }
+
+            final Job job = jobs[(int) (submitted & (CAPACITY - 1))];
+            job.id = event.id;
+            job.latency = event.latency;
+            job.text = event.text;
+            job.command = event.command;
+
+            // Creation time follows the order of arrival, not of parsing
+            job.timeCreated = System.currentTimeMillis();
+
+            submitted++;
+
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Worker thread loop, parses messages in parallel.
+     */
+    private void work() {
+        while (true) {
+            final Job job;
+
+            synchronized (lock) {
+                while (taken == submitted) {
+                    if (!isRunning) {
+                        return;
                     }
 
-                    final JSONObject result = json.getJSONObject("result");
-
-                    // Response type: Info
-                    final JSONObject accountData = result.optJSONObject("account_data");
-                    if (accountData != null) {
-                        final String account = accountData.getString("Account");
-                        final String balance = accountData.getString("Balance");
-                        final String sequence = accountData.getString("Sequence");
-
-                        values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_INFO);
-                        values.put(DatabaseHelper.ACCOUNT, account);
-                        values.put(DatabaseHelper.BALANCE, balance);
-                        values.put(DatabaseHelper.SEQUENCE, sequence);
-                    } else {
-                        // Response type: Transaction
-                        final String engineResult = result.optString("engine_result", null);
-                        if (engineResult != null) {
-                            final String message = result.getString("engine_result_message");
-                            final JSONObject tx = result.getJSONObject("tx_json");
-
-                            final String account = tx.getString("Account");
-                            final String destination = tx.getString("Destination");
-                            final int amount = tx.getInt("Amount");
-                            final int fee = tx.getInt("Fee");
-                            final int sequence = tx.getInt("Sequence");
-
-                            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_TRANSACTION);
-                            values.put(DatabaseHelper.ACCOUNT, account);
-                            values.put(DatabaseHelper.DESTINATION, destination);
-                            values.put(DatabaseHelper.AMOUNT, amount);
-                            values.put(DatabaseHelper.FEE, fee);
-                            values.put(DatabaseHelper.SEQUENCE, sequence);
-                            values.put(DatabaseHelper.MESSAGE, message);
-                        } else {
-                            // Response type: State
-                            final JSONObject state = result.optJSONObject("state");
-                            if (state != null) {
-                                final int loadBase = state.getInt("load_base");
-                                final int loadFactor = state.getInt("load_factor");
-                                final int peers = state.getInt("peers");
-
-                                final JSONObject validatedLedger =
-                                        state.getJSONObject("validated_ledger");
-
-                                final int baseFee = validatedLedger.getInt("base_fee");
-
-                                final double fee = baseFee * loadFactor / loadBase;
-
-                                values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_STATE);
-                                values.put(DatabaseHelper.PEERS, peers);
-                                values.put(DatabaseHelper.FEE, fee);
-                            } else {
-                                throw new RuntimeException("Command unsupported");
-                            }
-                        }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
                     }
-                } catch (JSONException e) {
-                    throw new RuntimeException("Invalid response", e);
+                }
+
+                // Slot can not be reused until the job is committed
+                job = jobs[(int) (taken & (CAPACITY - 1))];
+                taken++;
+            }
+
+            List<ContentValues> rows = null;
+            String error = null;
+            try {
+                rows = parse(job.text, job.command);
+
+                for (ContentValues values : rows) {
+                    values.put(DatabaseHelper.TIME_CREATED, job.timeCreated);
                 }
             } catch (RuntimeException e) {
-                errorMessage = e.getMessage();
+                error = e.getMessage();
             }
 
-            if (values != null) {
-                values.put(DatabaseHelper.TIME_CREATED, System.currentTimeMillis());
+            synchronized (lock) {
+                job.rows = rows;
+                job.error = error;
+                job.isParsed = true;
+
+                lock.notifyAll();
             }
         }
+    }
+
+    /**
+     * Commit thread loop, writes parsed messages in order of arrival.
+     * <p/>
+     * All consecutive messages that are parsed are committed together, in a single
+     * transaction with one change notification.
+     */
+    private void commit() {
+        final List<ContentValues> batch = new ArrayList<>();
 
-        final Intent broadcast = new Intent(ACTION_PARSE_FINISHED);
+        while (true) {
+            final long first = committed;
+            long last;
 
-        if (errorMessage != null) {
-            // Notify error occurred
-            broadcast.putExtra("error_message", errorMessage);
-        } else if (values != null) {
-            // Broadcast parser result
-            broadcast.putExtra("values", values);
+            synchronized (lock) {
+                while (committed == taken
+                        || !jobs[(int) (committed & (CAPACITY - 1))].isParsed) {
+
+                    if (!isRunning && committed == submitted) {
+                        return;
+                    }
+
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                last = first + 1;
+                while (last != taken && jobs[(int) (last & (CAPACITY - 1))].isParsed) {
+                    last++;
+                }
+            }
+
+            for (long i = first; i < last; i++) {
+                final Job job = jobs[(int) (i & (CAPACITY - 1))];
+                if (job.rows != null) {
+                    batch.addAll(job.rows);
+                }
+            }
+
+            // Rows that could not be stored are reported like parse errors, the slots are
+            // freed either way, or the pipeline would block the bus for good
+            String storeError = null;
+
+            if (!batch.isEmpty()) {
+                try {
+                    resolver.bulkInsert(uri, batch.toArray(new ContentValues[batch.size()]));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not store logs", e);
+
+                    storeError = e.getMessage() != null ? e.getMessage() : "Could not store logs";
+                } finally {
+                    batch.clear();
+                }
+            }
+
+            // Bus may be waiting for room in the pipeline, so results are offered
+            // without blocking, the UI can miss some of them while the bus is congested
+            for (long i = first; i < last; i++) {
+                final Job job = jobs[(int) (i & (CAPACITY - 1))];
+                if (job.rows != null && storeError != null) {
+                    bus.offer(EventBus.EVENT_PARSE_ERROR, WebSocketClientService.NO_ID, 0,
+                            storeError, job.command, null);
+                } else if (job.rows != null) {
+                    bus.offer(EventBus.EVENT_PARSE_FINISHED, job.id, job.latency, null,
+                            job.command, job.rows);
+                } else {
+                    // Notify error occurred
+                    bus.offer(EventBus.EVENT_PARSE_ERROR, WebSocketClientService.NO_ID, 0,
+                            job.error, job.command, null);
+                }
+            }
+
+            synchronized (lock) {
+                for (long i = first; i < last; i++) {
+                    jobs[(int) (i & (CAPACITY - 1))].clear();
+                }
+
+                committed = last;
+
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Parses a reply from server in a single pass.
+     * <p/>
+     * The {@code result} object is read by the handler registered for the command, everything
+     * else except an error description is skipped. Rows are padded to the columns declared by
+     * the handler, so all rows of a command share one compiled insert statement.
+     *
+     * @param text    JSON object received from server
+     * @param command command of the request the reply belongs to, may be {@code null}
+     * @return logs to be stored, without creation time
+     * @throws RuntimeException if the reply is an error, invalid or not supported
+     */
+    public static List<ContentValues> parse(String text, String command) {
+        final ResponseHandler handler = ResponseHandlers.get(command);
+        final List<ContentValues> rows = new ArrayList<>(1);
+
+        String error = null;
+        boolean hasResult = false;
+
+        try {
+            final JsonTokenizer json = new JsonTokenizer(text);
+
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName(RESPONSE_NAMES)) {
+                    case 0: { // type
+                        // Messages from subscription streams are not stored
+                        if (!"response".equals(json.nextString())) {
+                            throw new RuntimeException("Command unsupported");
+                        }
+
+                        break;
+                    }
+                    case 1: { // error_message
+                        error = json.nextString();
+
+                        break;
+                    }
+                    case 2: { // result
+                        if (handler != null) {
+                            handler.parse(json, rows);
+                        } else {
+                            json.skipValue();
+                        }
+
+                        hasResult = true;
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        break;
+                    }
+                }
+            }
+            json.endObject();
+        } catch (JSONException e) {
+            throw new RuntimeException("Invalid response", e);
+        }
+
+        // Check for an possible error first
+        if (error != null) {
+            throw new RuntimeException(error);
+        } else if (handler == null) {
+            throw new RuntimeException("Command unsupported");
+        } else if (!hasResult) {
+            throw new RuntimeException("Invalid response");
+        }
+
+        final String[] columns = handler.getColumns();
+        for (ContentValues values : rows) {
+            for (String column : columns) {
+                if (!values.containsKey(column)) {
+                    values.putNull(column);
+                }
+            }
         }
 
-        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(broadcast);
+        return rows;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import java.util.Arrays;
+
+/**
+ * Set of list positions that maps between positions of all rows and positions of the rows
+ * left out of the set, e.g. raw and visible adapter positions.
+ * <p/>
+ * Members are kept as bits along with a Fenwick tree of their counts, so adding, removing
+ * and mapping a position take logarithmic time and allocate nothing once the arrays cover
+ * the positions used.
+ */
+public class PositionSet {
+
+    // Positions the arrays are made for at first
+    private static final int MIN_CAPACITY = 64;
+
+    // Members, 64 positions per word
+    private long[] bits = new long[0];
+
+    // Counts of members, tree[k] holds positions k - (k & -k) to k - 1
+    private int[] tree = new int[1];
+
+    private int capacity;
+    private int size;
+
+    /**
+     * Adds a position.
+     *
+     * @param position position to be added, not negative
+     * @return {@code true} if the position was not a member yet
+     */
+    public boolean add(int position) {
+        if (contains(position)) {
+            return false;
+        }
+
+        ensureCapacity(position + 1);
+
+        bits[position >> 6] |= 1L << position;
+        for (int k = position + 1; k <= capacity; k += k & -k) {
+            tree[k]++;
+        }
+
+        size++;
+
+        return true;
+    }
+
+    /**
+     * Removes a position.
+     *
+     * @param position position to be removed
+     * @return {@code true} if the position was a member
+     */
+    public boolean remove(int position) {
+        if (!contains(position)) {
+            return false;
+        }
+
+        bits[position >> 6] &= ~(1L << position);
+        for (int k = position + 1; k <= capacity; k += k & -k) {
+            tree[k]--;
+        }
+
+        size--;
+
+        return true;
+    }
+
+    /**
+     * Checks whether a position is a member.
+     *
+     * @param position position to be checked
+     * @return {@code true} if the position is in the set
+     */
+    public boolean contains(int position) {
+        return position >= 0 && position < capacity
+                && (bits[position >> 6] & 1L << position) != 0;
+    }
+
+    /**
+     * Returns the number of members.
+     *
+     * @return number of positions in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of members before a position.
+     *
+     * @param position position to count up to, exclusive
+     * @return number of positions in the set lower than the position
+     */
+    public int countBefore(int position) {
+        int count = 0;
+        for (int k = Math.min(position, capacity); k > 0; k -= k & -k) {
+            count += tree[k];
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns a position left out of the set by its index among such positions, e.g.
+     * the raw position of a visible item.
+     *
+     * @param index index among positions that are not members, not negative
+     * @return position that is not a member and has {@code index} such positions before it
+     */
+    public int getAbsent(int index) {
+        if (index >= capacity - size) {
+            // All members lie before it
+            return index + size;
+        }
+
+        // Descend the tree to the last position with at most index absent positions before it
+        int position = 0;
+        int remaining = index;
+
+        for (int step = Integer.highestOneBit(capacity); step > 0; step >>= 1) {
+            final int next = position + step;
+
+            if (next <= capacity && step - tree[next] <= remaining) {
+                position = next;
+                remaining -= step - tree[next];
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Returns the first member at or after a position.
+     *
+     * @param position position to search from
+     * @return member position, or -1 if there is none
+     */
+    public int next(int position) {
+        if (position >= capacity) {
+            return -1;
+        }
+
+        int word = position >> 6;
+        long remaining = bits[word] & -1L << position;
+
+        while (remaining == 0) {
+            if (++word == bits.length) {
+                return -1;
+            }
+
+            remaining = bits[word];
+        }
+
+        return (word << 6) + Long.numberOfTrailingZeros(remaining);
+    }
+
+    /**
+     * Returns the last member.
+     *
+     * @return highest member position, or -1 if the set is empty
+     */
+    public int last() {
+        for (int word = bits.length - 1; word >= 0; word--) {
+            if (bits[word] != 0) {
+                return (word << 6) + 63 - Long.numberOfLeadingZeros(bits[word]);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes all members. The arrays are kept for the next positions.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(bits, 0);
+            Arrays.fill(tree, 0);
+
+            size = 0;
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= capacity) {
+            return;
+        }
+
+        final int newCapacity = Math.max(Math.max(MIN_CAPACITY, capacity * 2),
+                (minCapacity + 63) & ~63);
+
+        bits = Arrays.copyOf(bits, (newCapacity + 63) >> 6);
+        capacity = bits.length << 6;
+
+        // Build the counts in linear time, each node adds up to its parent
+        tree = new int[capacity + 1];
+        for (int k = 1; k <= capacity; k++) {
+            if ((bits[(k - 1) >> 6] & 1L << (k - 1)) != 0) {
+                tree[k]++;
+            }
+
+            final int parent = k + (k & -k);
+            if (parent <= capacity) {
+                tree[parent] += tree[k];
+            }
+        }
+    }
+}
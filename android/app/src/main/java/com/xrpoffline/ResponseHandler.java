@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.xrpoffline;
+
+import android.content.ContentValues;
+
+import org.json.JSONException;
+
+import java.util.List;
+
+/**
+ * Interface definition for a parser of the {@code result} object of a command reply.
+ * <p/>
+ * Handlers are looked up by command in {@link ResponseHandlers}.
+ */
+public interface ResponseHandler {
+
+    /**
+     * Returns the columns the handler writes, besides type and creation time.
+     * Other columns of the logs table are left empty.
+     *
+     * @return names of table columns
+     */
+    String[] getColumns();
+
+    /**
+     * Reads the {@code result} object of a reply and adds one row per log to be stored.
+     *
+     * @param json tokenizer positioned at the {@code result} object
+     * @param rows list the parsed logs are added to
+     * @throws JSONException if the result is malformed or misses required fields
+     */
+    void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException;
+}
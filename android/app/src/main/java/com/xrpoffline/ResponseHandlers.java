@@ -0,0 +1,949 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.xrpoffline;
+
+import android.content.ContentValues;
+
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Registry of {@link ResponseHandler}s keyed by command.
+ * <p/>
+ * Replies are correlated with their requests, so the command is known before a reply is read
+ * and its handler is found with a single hash lookup.
+ */
+public final class ResponseHandlers {
+
+    // Transaction fields shared by all commands that return transactions
+    private static final String[] TX_NAMES = {"Account", "Destination", "Amount", "Fee",
+            "Sequence", "hash", "ledger_index", "meta"};
+
+    private static final String[] META_NAMES = {"TransactionResult"};
+
+    // Fields of issued currency amounts
+    private static final String[] ISSUED_AMOUNT_NAMES = {"currency", "issuer", "value"};
+
+    private static final String[] TX_COLUMNS = {DatabaseHelper.ACCOUNT,
+            DatabaseHelper.DESTINATION, DatabaseHelper.AMOUNT, DatabaseHelper.ISSUED_VALUE,
+            DatabaseHelper.CURRENCY, DatabaseHelper.FEE, DatabaseHelper.SEQUENCE,
+            DatabaseHelper.MESSAGE, DatabaseHelper.HASH, DatabaseHelper.LEDGER_INDEX};
+
+    // Copy-on-write map, so handlers can be looked up from any thread without locking
+    private static volatile HashMap<String, ResponseHandler> handlers = new HashMap<>();
+
+    static {
+        register("account_info", new AccountInfoHandler());
+        register("account_lines", new AccountLinesHandler());
+        register("account_tx", new AccountTxHandler());
+        register("fee", new FeeHandler());
+        register("ledger", new LedgerHandler());
+        register("server_info", new ServerInfoHandler());
+        register("server_state", new ServerStateHandler());
+        register("tx", new TxHandler());
+
+        final ResponseHandler submitHandler = new SubmitHandler();
+        register("submit", submitHandler);
+        register("submit_multisigned", submitHandler);
+    }
+
+    private ResponseHandlers() {
+    }
+
+    /**
+     * Returns the handler for replies to a command.
+     *
+     * @param command command name, may be {@code null}
+     * @return response handler, or {@code null} if the command is not supported
+     */
+    public static ResponseHandler get(String command) {
+        return command != null ? handlers.get(command) : null;
+    }
+
+    /**
+     * Registers a handler for replies to a command, replacing any existing one.
+     *
+     * @param command command name
+     * @param handler response handler
+     */
+    public static synchronized void register(String command, ResponseHandler handler) {
+        final HashMap<String, ResponseHandler> updated = new HashMap<>(handlers);
+        updated.put(command, handler);
+
+        handlers = updated;
+    }
+
+    /**
+     * Handler of {@code account_info} replies.
+     */
+    private static class AccountInfoHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"account_data"};
+        private static final String[] ACCOUNT_DATA_NAMES = {"Account", "Balance", "Sequence"};
+
+        private static final String[] COLUMNS = {DatabaseHelper.ACCOUNT, DatabaseHelper.BALANCE,
+                DatabaseHelper.SEQUENCE};
+
+        @Override
+        public String[] getColumns() {
+            return COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_INFO);
+
+            int found = 0;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName(RESULT_NAMES) != 0) { // account_data
+                    json.skipValue();
+
+                    continue;
+                }
+
+                json.beginObject();
+                while (json.hasNext()) {
+                    final int name = json.nextName(ACCOUNT_DATA_NAMES);
+                    switch (name) {
+                        case 0: { // Account
+                            values.put(DatabaseHelper.ACCOUNT, json.nextString());
+
+                            break;
+                        }
+                        case 1: { // Balance
+                            values.put(DatabaseHelper.BALANCE, json.nextLong());
+
+                            break;
+                        }
+                        case 2: { // Sequence
+                            values.put(DatabaseHelper.SEQUENCE, json.nextLong());
+
+                            break;
+                        }
+                        default: {
+                            json.skipValue();
+
+                            continue;
+                        }
+                    }
+
+                    found |= 1 << name;
+                }
+                json.endObject();
+            }
+            json.endObject();
+
+            checkFound(found, ACCOUNT_DATA_NAMES);
+
+            rows.add(values);
+        }
+    }
+
+    /**
+     * Handler of {@code account_lines} replies, stores one row per trust line.
+     */
+    private static class AccountLinesHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"account", "lines"};
+        private static final String[] LINE_NAMES = {"account", "balance", "currency"};
+
+        private static final String[] COLUMNS = {DatabaseHelper.ACCOUNT,
+                DatabaseHelper.DESTINATION, DatabaseHelper.ISSUED_VALUE,
+                DatabaseHelper.CURRENCY};
+
+        @Override
+        public String[] getColumns() {
+            return COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            String account = null;
+
+            // Account may follow the lines, it is added once the whole result was read
+            final int first = rows.size();
+
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName(RESULT_NAMES)) {
+                    case 0: { // account
+                        account = json.nextString();
+
+                        break;
+                    }
+                    case 1: { // lines
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            rows.add(readLine(json));
+                        }
+                        json.endArray();
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        break;
+                    }
+                }
+            }
+            json.endObject();
+
+            if (account == null) {
+                throw new JSONException("No value for " + RESULT_NAMES[0]);
+            }
+
+            for (int i = first; i < rows.size(); i++) {
+                rows.get(i).put(DatabaseHelper.ACCOUNT, account);
+            }
+        }
+
+        private static ContentValues readLine(JsonTokenizer json) throws JSONException {
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_TRUST_LINE);
+
+            String peer = null;
+            String balance = null;
+            String currency = null;
+
+            int found = 0;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                final int name = json.nextName(LINE_NAMES);
+                switch (name) {
+                    case 0: { // account
+                        peer = json.nextString();
+
+                        break;
+                    }
+                    case 1: { // balance
+                        balance = json.nextString();
+
+                        break;
+                    }
+                    case 2: { // currency
+                        currency = json.nextString();
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        continue;
+                    }
+                }
+
+                found |= 1 << name;
+            }
+            json.endObject();
+
+            checkFound(found, LINE_NAMES);
+
+            // Balance is issued by the peer, or by this account if it is negative
+            final IssuedAmount amount = parseIssuedAmount(balance, currency, peer);
+
+            values.put(DatabaseHelper.DESTINATION, peer);
+            values.put(DatabaseHelper.ISSUED_VALUE, amount.toString());
+            values.put(DatabaseHelper.CURRENCY, currency);
+
+            return values;
+        }
+    }
+
+    /**
+     * Handler of {@code account_tx} replies, stores one row per transaction.
+     */
+    private static class AccountTxHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"transactions"};
+        private static final String[] ENTRY_NAMES = {"tx", "meta"};
+
+        @Override
+        public String[] getColumns() {
+            return TX_COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName(RESULT_NAMES) != 0) { // transactions
+                    json.skipValue();
+
+                    continue;
+                }
+
+                json.beginArray();
+                while (json.hasNext()) {
+                    rows.add(readEntry(json));
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+
+        private static ContentValues readEntry(JsonTokenizer json) throws JSONException {
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_TRANSACTION);
+
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName(ENTRY_NAMES)) {
+                    case 0: { // tx
+                        readTransaction(json, values);
+
+                        break;
+                    }
+                    case 1: { // meta
+                        readMeta(json, values);
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        break;
+                    }
+                }
+            }
+            json.endObject();
+
+            checkTransaction(values);
+
+            return values;
+        }
+    }
+
+    /**
+     * Handler of {@code fee} replies, stores the current open ledger cost.
+     */
+    private static class FeeHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"drops", "ledger_current_index"};
+        private static final String[] DROPS_NAMES = {"open_ledger_fee"};
+
+        private static final String[] COLUMNS = {DatabaseHelper.FEE,
+                DatabaseHelper.LEDGER_INDEX};
+
+        @Override
+        public String[] getColumns() {
+            return COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_STATE);
+
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName(RESULT_NAMES)) {
+                    case 0: { // drops
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            if (json.nextName(DROPS_NAMES) == 0) { // open_ledger_fee
+                                values.put(DatabaseHelper.FEE, json.nextLong());
+                            } else {
+                                json.skipValue();
+                            }
+                        }
+                        json.endObject();
+
+                        break;
+                    }
+                    case 1: { // ledger_current_index
+                        values.put(DatabaseHelper.LEDGER_INDEX, json.nextLong());
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        break;
+                    }
+                }
+            }
+            json.endObject();
+
+            if (!values.containsKey(DatabaseHelper.FEE)) {
+                throw new JSONException("No value for " + DROPS_NAMES[0]);
+            }
+
+            rows.add(values);
+        }
+    }
+
+    /**
+     * Handler of {@code ledger} replies.
+     */
+    private static class LedgerHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"ledger", "ledger_index", "ledger_hash"};
+        private static final String[] LEDGER_NAMES = {"ledger_index", "ledger_hash",
+                "close_time_human"};
+
+        private static final String[] COLUMNS = {DatabaseHelper.LEDGER_INDEX,
+                DatabaseHelper.HASH, DatabaseHelper.MESSAGE};
+
+        @Override
+        public String[] getColumns() {
+            return COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_LEDGER);
+
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName(RESULT_NAMES)) {
+                    case 0: { // ledger
+                        readLedger(json, values);
+
+                        break;
+                    }
+                    case 1: { // ledger_index
+                        values.put(DatabaseHelper.LEDGER_INDEX, json.nextLong());
+
+                        break;
+                    }
+                    case 2: { // ledger_hash
+                        values.put(DatabaseHelper.HASH, json.nextString());
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        break;
+                    }
+                }
+            }
+            json.endObject();
+
+            if (!values.containsKey(DatabaseHelper.LEDGER_INDEX)) {
+                throw new JSONException("No value for " + LEDGER_NAMES[0]);
+            }
+
+            rows.add(values);
+        }
+
+        private static void readLedger(JsonTokenizer json, ContentValues values)
+                throws JSONException {
+
+            // Transactions and state of the ledger are skipped
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName(LEDGER_NAMES)) {
+                    case 0: { // ledger_index
+                        values.put(DatabaseHelper.LEDGER_INDEX, json.nextLong());
+
+                        break;
+                    }
+                    case 1: { // ledger_hash
+                        values.put(DatabaseHelper.HASH, json.nextString());
+
+                        break;
+                    }
+                    case 2: { // close_time_human
+                        values.put(DatabaseHelper.MESSAGE, json.nextString());
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        break;
+                    }
+                }
+            }
+            json.endObject();
+        }
+    }
+
+    /**
+     * Handler of {@code server_info} replies.
+     */
+    private static class ServerInfoHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"info"};
+        private static final String[] INFO_NAMES = {"peers", "load_factor", "validated_ledger"};
+        private static final String[] LEDGER_NAMES = {"base_fee_xrp"};
+
+        private static final String[] COLUMNS = {DatabaseHelper.PEERS, DatabaseHelper.FEE};
+
+        @Override
+        public String[] getColumns() {
+            return COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            int peers = 0;
+            String loadFactor = "1";
+            String baseFee = null;
+
+            int found = 0;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName(RESULT_NAMES) != 0) { // info
+                    json.skipValue();
+
+                    continue;
+                }
+
+                json.beginObject();
+                while (json.hasNext()) {
+                    final int name = json.nextName(INFO_NAMES);
+                    switch (name) {
+                        case 0: { // peers
+                            peers = json.nextInt();
+
+                            break;
+                        }
+                        case 1: { // load_factor
+                            loadFactor = json.nextString();
+
+                            break;
+                        }
+                        case 2: { // validated_ledger
+                            baseFee = readBaseFee(json, LEDGER_NAMES);
+
+                            break;
+                        }
+                        default: {
+                            json.skipValue();
+
+                            continue;
+                        }
+                    }
+
+                    found |= 1 << name;
+                }
+                json.endObject();
+            }
+            json.endObject();
+
+            // Load factor is left out by servers that are not loaded
+            checkFound(found | 1 << 1, INFO_NAMES);
+
+            // Base fee is given in XRP, fees are stored in drops
+            final long fee;
+            try {
+                fee = Drops.multiply(Drops.fromXrp(baseFee), loadFactor);
+            } catch (NumberFormatException e) {
+                throw new JSONException("Invalid fee: " + baseFee + " * " + loadFactor);
+            }
+
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_STATE);
+            values.put(DatabaseHelper.PEERS, peers);
+            values.put(DatabaseHelper.FEE, fee);
+
+            rows.add(values);
+        }
+    }
+
+    /**
+     * Handler of {@code server_state} replies.
+     */
+    private static class ServerStateHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"state"};
+        private static final String[] STATE_NAMES = {"load_base", "load_factor", "peers",
+                "validated_ledger"};
+        private static final String[] LEDGER_NAMES = {"base_fee"};
+
+        private static final String[] COLUMNS = {DatabaseHelper.PEERS, DatabaseHelper.FEE};
+
+        @Override
+        public String[] getColumns() {
+            return COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            long loadBase = 0;
+            long loadFactor = 0;
+            int peers = 0;
+            long baseFee = 0;
+
+            int found = 0;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName(RESULT_NAMES) != 0) { // state
+                    json.skipValue();
+
+                    continue;
+                }
+
+                json.beginObject();
+                while (json.hasNext()) {
+                    final int name = json.nextName(STATE_NAMES);
+                    switch (name) {
+                        case 0: { // load_base
+                            loadBase = json.nextLong();
+
+                            break;
+                        }
+                        case 1: { // load_factor
+                            loadFactor = json.nextLong();
+
+                            break;
+                        }
+                        case 2: { // peers
+                            peers = json.nextInt();
+
+                            break;
+                        }
+                        case 3: { // validated_ledger
+                            final String value = readBaseFee(json, LEDGER_NAMES);
+                            try {
+                                baseFee = Long.parseLong(value);
+                            } catch (NumberFormatException e) {
+                                throw new JSONException("Invalid base_fee: " + value);
+                            }
+
+                            break;
+                        }
+                        default: {
+                            json.skipValue();
+
+                            continue;
+                        }
+                    }
+
+                    found |= 1 << name;
+                }
+                json.endObject();
+            }
+            json.endObject();
+
+            checkFound(found, STATE_NAMES);
+
+            if (loadBase <= 0) {
+                throw new JSONException("Invalid load_base: " + loadBase);
+            }
+
+            // Fees are stored in drops, rounded up like the server does
+            final long fee = Drops.scale(baseFee, loadFactor, loadBase);
+
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_STATE);
+            values.put(DatabaseHelper.PEERS, peers);
+            values.put(DatabaseHelper.FEE, fee);
+
+            rows.add(values);
+        }
+    }
+
+    /**
+     * Handler of {@code submit} replies.
+     */
+    private static class SubmitHandler implements ResponseHandler {
+
+        private static final String[] RESULT_NAMES = {"engine_result_message", "tx_json"};
+
+        @Override
+        public String[] getColumns() {
+            return TX_COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_TRANSACTION);
+
+            int found = 0;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                final int name = json.nextName(RESULT_NAMES);
+                switch (name) {
+                    case 0: { // engine_result_message
+                        values.put(DatabaseHelper.MESSAGE, json.nextString());
+
+                        break;
+                    }
+                    case 1: { // tx_json
+                        readTransaction(json, values);
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        continue;
+                    }
+                }
+
+                found |= 1 << name;
+            }
+            json.endObject();
+
+            checkFound(found, RESULT_NAMES);
+            checkTransaction(values);
+
+            rows.add(values);
+        }
+    }
+
+    /**
+     * Handler of {@code tx} replies, the transaction fields are part of the result.
+     */
+    private static class TxHandler implements ResponseHandler {
+
+        @Override
+        public String[] getColumns() {
+            return TX_COLUMNS;
+        }
+
+        @Override
+        public void parse(JsonTokenizer json, List<ContentValues> rows) throws JSONException {
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.TYPE, ItemTypes.TYPE_TRANSACTION);
+
+            readTransaction(json, values);
+            checkTransaction(values);
+
+            rows.add(values);
+        }
+    }
+
+    /**
+     * Reads transaction fields from an object.
+     *
+     * @param json   tokenizer positioned at the transaction object
+     * @param values log attributes the fields are put to
+     * @throws JSONException if the transaction is malformed
+     */
+    private static void readTransaction(JsonTokenizer json, ContentValues values)
+            throws JSONException {
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName(TX_NAMES)) {
+                case 0: { // Account
+                    values.put(DatabaseHelper.ACCOUNT, json.nextString());
+
+                    break;
+                }
+                case 1: { // Destination
+                    values.put(DatabaseHelper.DESTINATION, json.nextString());
+
+                    break;
+                }
+                case 2: { // Amount
+                    final int token = json.peek();
+                    if (token == JsonTokenizer.TOKEN_STRING
+                            || token == JsonTokenizer.TOKEN_NUMBER) {
+
+                        values.put(DatabaseHelper.AMOUNT, json.nextLong());
+                    } else {
+                        // Issued currency amounts are objects, kept as exact decimal text
+                        final IssuedAmount amount = readIssuedAmount(json);
+
+                        values.put(DatabaseHelper.ISSUED_VALUE, amount.toString());
+                        values.put(DatabaseHelper.CURRENCY, amount.currency);
+                    }
+
+                    break;
+                }
+                case 3: { // Fee
+                    values.put(DatabaseHelper.FEE, json.nextLong());
+
+                    break;
+                }
+                case 4: { // Sequence
+                    values.put(DatabaseHelper.SEQUENCE, json.nextLong());
+
+                    break;
+                }
+                case 5: { // hash
+                    values.put(DatabaseHelper.HASH, json.nextString());
+
+                    break;
+                }
+                case 6: { // ledger_index
+                    values.put(DatabaseHelper.LEDGER_INDEX, json.nextLong());
+
+                    break;
+                }
+                case 7: { // meta
+                    readMeta(json, values);
+
+                    break;
+                }
+                default: {
+                    json.skipValue();
+
+                    break;
+                }
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * Reads the result code from transaction metadata.
+     *
+     * @param json   tokenizer positioned at the metadata object
+     * @param values log attributes the result is put to
+     * @throws JSONException if the metadata is malformed
+     */
+    private static void readMeta(JsonTokenizer json, ContentValues values)
+            throws JSONException {
+
+        // Metadata of binary transactions is a string
+        if (json.peek() != JsonTokenizer.TOKEN_BEGIN_OBJECT) {
+            json.skipValue();
+
+            return;
+        }
+
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName(META_NAMES) == 0) { // TransactionResult
+                values.put(DatabaseHelper.MESSAGE, json.nextString());
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * Reads an issued currency amount object.
+     *
+     * @param json tokenizer positioned at the amount object
+     * @return parsed amount
+     * @throws JSONException if the amount is malformed
+     */
+    private static IssuedAmount readIssuedAmount(JsonTokenizer json) throws JSONException {
+        String currency = null;
+        String issuer = null;
+        String value = null;
+
+        int found = 0;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            final int name = json.nextName(ISSUED_AMOUNT_NAMES);
+            switch (name) {
+                case 0: { // currency
+                    currency = json.nextString();
+
+                    break;
+                }
+                case 1: { // issuer
+                    issuer = json.nextString();
+
+                    break;
+                }
+                case 2: { // value
+                    value = json.nextString();
+
+                    break;
+                }
+                default: {
+                    json.skipValue();
+
+                    continue;
+                }
+            }
+
+            found |= 1 << name;
+        }
+        json.endObject();
+
+        // Issuer is optional in some requests
+        checkFound(found | 1 << 1, ISSUED_AMOUNT_NAMES);
+
+        return parseIssuedAmount(value, currency, issuer);
+    }
+
+    private static IssuedAmount parseIssuedAmount(String value, String currency, String issuer)
+            throws JSONException {
+
+        try {
+            return IssuedAmount.parse(value, currency, issuer);
+        } catch (NumberFormatException e) {
+            throw new JSONException("Invalid amount: " + value);
+        }
+    }
+
+    /**
+     * Reads the base fee from a validated ledger object.
+     *
+     * @param json  tokenizer positioned at the ledger object
+     * @param names table holding the name of the base fee field
+     * @return base fee as it appears in the text, in XRP or in drops depending on the field
+     * @throws JSONException if the ledger is malformed or misses the base fee
+     */
+    private static String readBaseFee(JsonTokenizer json, String[] names)
+            throws JSONException {
+
+        String baseFee = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName(names) == 0) {
+                baseFee = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        if (baseFee == null) {
+            throw new JSONException("No value for " + names[0]);
+        }
+
+        return baseFee;
+    }
+
+    private static void checkTransaction(ContentValues values) throws JSONException {
+        if (!values.containsKey(DatabaseHelper.ACCOUNT)) {
+            throw new JSONException("No value for " + TX_NAMES[0]);
+        }
+    }
+
+    /**
+     * Checks that all names of a table were read.
+     *
+     * @param found bit mask of name indexes that were read
+     * @param names table of names
+     * @throws JSONException if any of the names is missing
+     */
+    private static void checkFound(int found, String[] names) throws JSONException {
+        for (int i = 0; i < names.length; i++) {
+            if ((found & (1 << i)) == 0) {
+                throw new JSONException("No value for " + names[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Pool of Ripple WebSocket servers ranked by measured latency.
+ * <p/>
+ * Servers are probed in the background: a short-lived connection measures the handshake time
+ * and the round trip of a {@code ping} command. Only {@code ping} replies are ranked, round
+ * trips of other commands depend on the size of the reply and are not comparable between servers.
+ * <p/>
+ * Probing is meant to run only while the main connection is wanted, rounds are skipped
+ * while there is no network.
+ */
+public class ServerPool {
+
+    private static final String TAG = ServerPool.class.getName();
+
+    // How often all servers are probed
+    private static final long PROBE_INTERVAL = 5 * 60 * 1000;
+
+    // Probe that does not finish in this time is considered failed
+    private static final long PROBE_TIMEOUT = 10 * 1000;
+
+    /**
+     * Round trip time above which the server is considered overloaded.
+     */
+    public static final long LATENCY_THRESHOLD = 2000;
+
+    // Weight of the newest sample in exponentially weighted moving averages
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    /**
+     * Name of the command whose round trip time is used for ranking.
+     */
+    public static final String PING_COMMAND = "ping";
+
+    private static final String PING = "{\"command\":\"" + PING_COMMAND + "\"}";
+
+    private final Context context;
+
+    private final Server[] servers;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private boolean isProbing;
+
+    /**
+     * Creates a new pool of servers.
+     *
+     * @param context the context to check network connectivity with
+     * @param urls    web addresses of servers, in order of preference
+     */
+    public ServerPool(Context context, String[] urls) {
+        this.context = context.getApplicationContext();
+
+        servers = new Server[urls.length];
+
+        for (int i = 0; i < urls.length; i++) {
+            servers[i] = new Server(urls[i]);
+        }
+    }
+
+    /**
+     * Starts probing all servers periodically.
+     */
+    public void startProbing() {
+        if (!isProbing) {
+            isProbing = true;
+
+            handler.post(probeTask);
+        }
+    }
+
+    /**
+     * Stops periodic probing.
+     */
+    public void stopProbing() {
+        isProbing = false;
+
+        handler.removeCallbacks(probeTask);
+    }
+
+    private final Runnable probeTask = new Runnable() {
+
+        @Override
+        public void run() {
+            // Probes would only fail and rank every server down
+            if (NetUtils.isConnectedToNetwork(context)) {
+                for (Server server : servers) {
+                    probe(server);
+                }
+            }
+
+            if (isProbing) {
+                handler.postDelayed(this, PROBE_INTERVAL);
+            }
+        }
+    };
+
+    /**
+     * Returns the server with the lowest latency.
+     *
+     * @return web address of the best server
+     */
+    public synchronized String getBestUrl() {
+        return getBestUrl(null);
+    }
+
+    /**
+     * Returns the server with the lowest latency, excluding one server.
+     *
+     * @param excludedUrl web address of server to skip, may be {@code null}
+     * @return web address of the best server, or {@code null} if there is none
+     */
+    public synchronized String getBestUrl(String excludedUrl) {
+        Server best = null;
+
+        for (Server server : servers) {
+            if (!server.url.equals(excludedUrl) && (best == null || server.isBetterThan(best))) {
+                best = server;
+            }
+        }
+
+        return best != null ? best.url : null;
+    }
+
+    /**
+     * Returns the count of servers in the pool.
+     *
+     * @return number of servers
+     */
+    public int size() {
+        return servers.length;
+    }
+
+    /**
+     * Checks if another server should be used instead of the current one.
+     *
+     * @param url web address of the current server
+     * @return {@code true} if the server is too slow and a faster one is available
+     */
+    public synchronized boolean shouldFailOver(String url) {
+        final Server current = find(url);
+        if (current == null || current.roundTripTime <= LATENCY_THRESHOLD) {
+            return false;
+        }
+
+        final Server best = find(getBestUrl(url));
+
+        return best != null && best.isBetterThan(current);
+    }
+
+    /**
+     * Reports the time needed to open a connection.
+     *
+     * @param url  web address of server
+     * @param time handshake time in milliseconds
+     */
+    public synchronized void onHandshake(String url, long time) {
+        final Server server = find(url);
+        if (server != null) {
+            server.handshakeTime = average(server.handshakeTime, time);
+            server.failures = 0;
+        }
+    }
+
+    /**
+     * Reports the time between sending a {@link #PING_COMMAND} request and receiving its reply.
+     *
+     * @param url  web address of server
+     * @param time round trip time in milliseconds
+     */
+    public synchronized void onLatency(String url, long time) {
+        final Server server = find(url);
+        if (server != null) {
+            server.roundTripTime = average(server.roundTripTime, time);
+        }
+    }
+
+    /**
+     * Reports a failed connection.
+     *
+     * @param url web address of server
+     */
+    public synchronized void onFailure(String url) {
+        final Server server = find(url);
+        if (server != null) {
+            server.failures++;
+        }
+    }
+
+    private Server find(String url) {
+        for (Server server : servers) {
+            if (server.url.equals(url)) {
+                return server;
+            }
+        }
+
+        return null;
+    }
+
+    private static long average(long average, long sample) {
+        return average == Server.UNKNOWN ?
+                sample : Math.round(average + SAMPLE_WEIGHT * (sample - average));
+    }
+
+    /**
+     * Measures handshake and round trip time of a server using a temporary connection.
+     *
+     * @param server server to be probed
+     */
+    private void probe(final Server server) {
+        final URI uri;
+        try {
+            uri = new URI(server.url);
+        } catch (URISyntaxException e) {
+            Log.e(TAG, "Invalid URL", e);
+
+            return;
+        }
+
+        final Probe probe = new Probe(uri, server);
+
+        // Give up on servers that do not respond in time
+        handler.postDelayed(probe.timeoutTask, PROBE_TIMEOUT);
+
+        probe.connect();
+    }
+
+    /**
+     * Temporary connection that measures the latency of a server.
+     */
+    private class Probe extends WebSocketClient {
+
+        private final Server server;
+
+        private final long timeStarted = SystemClock.elapsedRealtime();
+        private long timeOpened;
+        private boolean isFinished;
+
+        final Runnable timeoutTask = new Runnable() {
+
+            @Override
+            public void run() {
+                close();
+            }
+        };
+
+        Probe(URI uri, Server server) {
+            super(uri);
+
+            this.server = server;
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            timeOpened = SystemClock.elapsedRealtime();
+
+            ServerPool.this.onHandshake(server.url, timeOpened - timeStarted);
+
+            send(PING);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            final long latency = SystemClock.elapsedRealtime() - timeOpened;
+
+            ServerPool.this.onLatency(server.url, latency);
+
+            finish();
+            close();
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            if (!finish()) {
+                ServerPool.this.onFailure(server.url);
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            if (!finish()) {
+                ServerPool.this.onFailure(server.url);
+            }
+        }
+
+        /**
+         * Marks the probe as finished and cancels its timeout.
+         *
+         * @return {@code true} if the probe was already finished
+         */
+        private synchronized boolean finish() {
+            final boolean wasFinished = isFinished;
+            isFinished = true;
+
+            handler.removeCallbacks(timeoutTask);
+
+            return wasFinished;
+        }
+    }
+
+    /**
+     * Latency statistics of a single server.
+     */
+    private static class Server {
+
+        static final long UNKNOWN = -1;
+
+        final String url;
+
+        long handshakeTime = UNKNOWN;
+        long roundTripTime = UNKNOWN;
+        int failures;
+
+        Server(String url) {
+            this.url = url;
+        }
+
+        /**
+         * Compares servers by failures first, then by measured latency.
+         * Servers that were not measured yet rank behind the measured ones.
+         *
+         * @param other server to compare with
+         * @return {@code true} if this server should be preferred
+         */
+        boolean isBetterThan(Server other) {
+            if (failures != other.failures) {
+                return failures < other.failures;
+            }
+
+            if (other.getScore() == UNKNOWN) {
+                return getScore() != UNKNOWN;
+            }
+
+            return getScore() != UNKNOWN && getScore() < other.getScore();
+        }
+
+        long getScore() {
+            if (handshakeTime == UNKNOWN) {
+                return UNKNOWN;
+            }
+
+            return handshakeTime + (roundTripTime == UNKNOWN ? handshakeTime : roundTripTime);
+        }
+    }
+}
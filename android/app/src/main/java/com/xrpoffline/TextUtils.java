@@ -20,7 +20,7 @@ import android.content.Context;
 import android.provider.BaseColumns;
 
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -33,6 +33,12 @@ public class TextUtils {
      */
     public static final String TEMPLATE_DATE_DEFAULT = "yyyy-MM-dd HH:mm:ss";
 
+    /**
+     * Maximum number of row ids in one criterion, well below the SQLite limit of 999
+     * parameters in a statement.
+     */
+    public static final int MAX_WHERE_IDS = 512;
+
     // Static methods only
     private TextUtils() {
     }
@@ -64,15 +70,62 @@ public class TextUtils {
     }
 
     /**
-     * Creates criterion based on multiple SQLite column ids.
+     * Creates criterion based on multiple SQLite row ids, bound as parameters.
+     * Criteria of the same size are equal, so their compiled statements are reused.
+     *
+     * @param count number of ids, see {@link #makeWhereArgs}
+     * @return criterion usable with SQLite where clause, e.g. {@code _id in (?,?,?,?)}
+     */
+    public static String makeWhereClause(int count) {
+        final StringBuilder clause = new StringBuilder(BaseColumns._ID.length() + 6 + count * 2)
+                .append(BaseColumns._ID).append(" in (");
+
+        for (int i = 0; i < count; i++) {
+            clause.append(i > 0 ? ",?" : "?");
+        }
+
+        return clause.append(')').toString();
+    }
+
+    /**
+     * Splits SQLite row ids into arguments of {@link #makeWhereClause}, in chunks of at most
+     * {@link #MAX_WHERE_IDS} ids. The last chunk is padded to a power of two by repeating
+     * its last id, so only a few distinct criteria are ever compiled.
      *
      * @param ids SQLite database row ids
-     * @return criterion usable with SQLite where clause
+     * @return arguments of each chunk, none if there are no ids
      */
-    public static String makeWhereClause(List<Long> ids) {
-        final Long[] idsArray = ids.toArray(new Long[ids.size()]);
+    public static List<String[]> makeWhereArgs(List<Long> ids) {
+        final long[] values = new long[ids.size()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ids.get(i);
+        }
+
+        return makeWhereArgs(values);
+    }
+
+    /**
+     * Splits SQLite row ids into arguments of {@link #makeWhereClause}, see
+     * {@link #makeWhereArgs(List)}.
+     *
+     * @param ids SQLite database row ids
+     * @return arguments of each chunk, none if there are no ids
+     */
+    public static List<String[]> makeWhereArgs(long[] ids) {
+        final List<String[]> chunks = new ArrayList<>(ids.length / MAX_WHERE_IDS + 1);
+
+        for (int start = 0; start < ids.length; start += MAX_WHERE_IDS) {
+            final int count = Math.min(ids.length - start, MAX_WHERE_IDS);
+            final String[] args = new String[Math.max(1, Integer.highestOneBit(count - 1) << 1)];
+
+            for (int i = 0; i < args.length; i++) {
+                args[i] = String.valueOf(ids[start + Math.min(i, count - 1)]);
+            }
+
+            chunks.add(args);
+        }
 
-        return BaseColumns._ID + " in " + Arrays.toString(idsArray)
-                .replace("[", "(").replace("]", ")");
+        return chunks;
     }
 }
\ No newline at end of file
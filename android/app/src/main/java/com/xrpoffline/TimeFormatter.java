@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 The XRPoffline Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xrpoffline;
+
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats times of list items into buffers, e.g. {@code 2015-11-02 14:05:09}, to be shown
+ * by {@link android.widget.TextView#setText(char[], int, int)}.
+ * <p/>
+ * The date format is made once per locale. Times shown lately are cached by their second,
+ * in a small table indexed by the second, so neither logs of the same second nor logs
+ * scrolled back to are formatted again. A cached time is only copied, no object is created.
+ * The template must not show fractions of a second. Not thread-safe, meant for binding
+ * on the main thread.
+ */
+public class TimeFormatter {
+
+    /**
+     * Length of a buffer that holds any formatted time, longer times are cut.
+     */
+    public static final int MAX_LENGTH = 32;
+
+    // Number of seconds cached, a power of two
+    private static final int CACHE_SIZE = 64;
+
+    private final String template;
+
+    private Locale locale;
+    private SimpleDateFormat format;
+
+    // Reused by every time formatted
+    private final Date date = new Date();
+    private final StringBuffer text = new StringBuffer(MAX_LENGTH);
+    private final FieldPosition field = new FieldPosition(0);
+
+    private final long[] cachedSeconds = new long[CACHE_SIZE];
+    private final char[][] cachedTexts = new char[CACHE_SIZE][MAX_LENGTH];
+    private final int[] cachedLengths = new int[CACHE_SIZE];
+
+    public TimeFormatter(String template) {
+        this.template = template;
+    }
+
+    /**
+     * Formats a time into a buffer.
+     *
+     * @param locale locale of the text, e.g. of the current configuration
+     * @param time   time since epoch in milliseconds
+     * @param buffer buffer of {@link #MAX_LENGTH} characters, written from the start
+     * @return number of characters written
+     */
+    public int format(Locale locale, long time, char[] buffer) {
+        if (!locale.equals(this.locale)) {
+            this.locale = locale;
+
+            format = new SimpleDateFormat(template, locale);
+            Arrays.fill(cachedLengths, 0);
+        }
+
+        final long second = time >= 0 ? time / 1000 : (time - 999) / 1000;
+        final int index = (int) second & (CACHE_SIZE - 1);
+
+        final char[] cachedText = cachedTexts[index];
+
+        if (cachedLengths[index] == 0 || cachedSeconds[index] != second) {
+            text.setLength(0);
+            date.setTime(second * 1000);
+            format.format(date, text, field);
+
+            final int length = Math.min(text.length(), MAX_LENGTH);
+            text.getChars(0, length, cachedText, 0);
+
+            cachedSeconds[index] = second;
+            cachedLengths[index] = length;
+        }
+
+        final int length = Math.min(cachedLengths[index], buffer.length);
+        System.arraycopy(cachedText, 0, buffer, 0, length);
+
+        return length;
+    }
+}
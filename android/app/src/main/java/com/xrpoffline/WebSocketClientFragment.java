@@ -16,16 +16,13 @@
 
 package com.xrpoffline;
 
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.LocalBroadcastManager;
 
 /**
  * Retaining wrapper fragment that binds {@link WebSocketClientService}.
@@ -45,13 +42,6 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
          */
         void onConnectionEstablished();
 
-        /**
-         * Called when a WebSocket client received a response from server.
-         *
-         * @param message response from server
-         */
-        void onMessage(String message);
-
         /**
          * Called when the connection to a WebSocket server was closed.
          *
@@ -68,7 +58,6 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
     }
 
     private WebSocketClientService client;
-    private boolean isForceDisconnected;
 
     private OnWebSocketListener onWebSocketListener;
 
@@ -76,7 +65,7 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
      * Creates new instance of {@code WebSocketClientFragment} by specifying web address
      * of WebSocket server.
      *
-     * @param url web address of WebSocket server
+     * @param url web address of WebSocket server, {@code null} to pick the best server
      * @return a new instance of {@code WebSocketClientFragment}
      */
     public static WebSocketClientFragment newInstance(String url) {
@@ -121,16 +110,12 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
     public void onResume() {
         super.onResume();
 
-        // Register receiver to be notified of WebSocket client service events
-        final IntentFilter localFilter = new IntentFilter();
+        // Subscribe to be notified of WebSocket client service events on the main thread
+        final EventBus bus = EventBus.getInstance();
 
-        localFilter.addAction(WebSocketClientService.ACTION_CONNECTION_ESTABLISHED);
-        localFilter.addAction(WebSocketClientService.ACTION_MESSAGE);
-        localFilter.addAction(WebSocketClientService.ACTION_CONNECTION_CLOSED);
-        localFilter.addAction(WebSocketClientService.ACTION_CONNECTION_ERROR);
-
-        LocalBroadcastManager.getInstance(getContext().getApplicationContext())
-                .registerReceiver(localReceiver, localFilter);
+        bus.subscribe(EventBus.EVENT_CONNECTION_ESTABLISHED, subscriber, true);
+        bus.subscribe(EventBus.EVENT_CONNECTION_CLOSED, subscriber, true);
+        bus.subscribe(EventBus.EVENT_CONNECTION_ERROR, subscriber, true);
     }
 
     @Override
@@ -138,8 +123,7 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
         super.onPause();
 
         // No need to be notified of WebSocket client service events while the fragment is paused
-        LocalBroadcastManager.getInstance(getContext().getApplicationContext())
-                .unregisterReceiver(localReceiver);
+        EventBus.getInstance().unsubscribe(subscriber);
     }
 
     @Override
@@ -162,6 +146,8 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
             final String url = arguments.getString("url");
 
             connect(url);
+        } else {
+            connect();
         }
     }
 
@@ -170,6 +156,15 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
         client = null;
     }
 
+    /**
+     * Creates a new connection to the best WebSocket server available.
+     */
+    public void connect() {
+        if (client != null) {
+            client.connect();
+        }
+    }
+
     /**
      * Creates a new connection to specific WebSocket server.
      *
@@ -178,8 +173,6 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
     public void connect(String url) {
         if (client != null) {
             client.connect(url);
-
-            isForceDisconnected = false;
         }
     }
 
@@ -198,8 +191,6 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
     public void disconnect() {
         if (client != null) {
             client.disconnect();
-
-            isForceDisconnected = true;
         }
     }
 
@@ -209,44 +200,70 @@ public class WebSocketClientFragment extends Fragment implements ServiceConnecti
      * @return {@code true} if the connection was closed by user, {@code false} otherwise
      */
     public boolean isForceDisconnected() {
-        return isForceDisconnected;
+        return client != null && client.isClosedByUser();
+    }
+
+    /**
+     * Stores a command in the outbox, it will be sent as soon as the connection is open.
+     *
+     * @param command JSON command to be sent
+     */
+    public void enqueue(String command) {
+        if (client != null) {
+            client.enqueue(command);
+        } else {
+            // Service is not bound yet, it drains the outbox once connected
+            new Outbox(getContext()).addInBackground(command);
+        }
     }
 
     /**
      * Sends request to a WebSocket Server.
      *
      * @param request message to be sent
+     * @return id assigned to the request, or {@link WebSocketClientService#NO_ID} if the request
+     * was not tagged
      */
-    public void send(String request) {
+    public int send(String request) {
+        return send(request, null);
+    }
+
+    /**
+     * Sends request to a WebSocket Server and registers a listener for its reply.
+     *
+     * @param request  JSON command to be sent
+     * @param listener listener to be notified of the reply, may be {@code null}
+     * @return id assigned to the request, or {@link WebSocketClientService#NO_ID} if the request
+     * was not tagged
+     */
+    public int send(String request, WebSocketClientService.OnResponseListener listener) {
         if (client != null) {
-            client.send(request);
+            return client.send(request, listener);
         }
+
+        return WebSocketClientService.NO_ID;
     }
 
-    // Use this receiver to receive WebSocket client service events and pass them to activity
-    private final BroadcastReceiver localReceiver = new BroadcastReceiver() {
+    // Use this subscriber to receive WebSocket client service events and pass them to activity
+    private final EventBus.Subscriber subscriber = new EventBus.Subscriber() {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            switch (action) {
-                case WebSocketClientService.ACTION_CONNECTION_ESTABLISHED: {
+        public void onEvent(EventBus.Event event) {
+            switch (event.type) {
+                case EventBus.EVENT_CONNECTION_ESTABLISHED: {
                     onWebSocketListener.onConnectionEstablished();
-                }
-                case WebSocketClientService.ACTION_MESSAGE: {
-                    final String message = intent.getStringExtra("message");
 
-                    onWebSocketListener.onMessage(message);
+                    break;
                 }
-                case WebSocketClientService.ACTION_CONNECTION_CLOSED: {
-                    final String reason = intent.getStringExtra("reason");
+                case EventBus.EVENT_CONNECTION_CLOSED: {
+                    onWebSocketListener.onConnectionClosed(event.text);
 
-                    onWebSocketListener.onConnectionClosed(reason);
+                    break;
                 }
-                case WebSocketClientService.ACTION_CONNECTION_ERROR: {
-                    final String errorMessage = intent.getStringExtra("error_message");
+                case EventBus.EVENT_CONNECTION_ERROR: {
+                    onWebSocketListener.onConnectionError(event.text);
 
-                    onWebSocketListener.onConnectionError(errorMessage);
+                    break;
                 }
             }
         }
@@ -19,33 +19,185 @@ package com.xrpoffline;
 import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.handshake.ServerHandshake;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.NotYetConnectedException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Background service that handles WebSocket connection.
  * <p/>
  * This service is also used to send/receive messages to/from the server.
+ * Every outgoing JSON command is tagged with an unique {@code id}, so the replies
+ * can be matched to their requests while many commands are in flight at once.
+ * <p/>
+ * Servers are taken from a {@link ServerPool}. When the connection fails or the server
+ * becomes too slow, the service fails over to the next best server on its own.
+ * <p/>
+ * Connection follows a simple state machine: {@link #STATE_IDLE} &rarr;
+ * {@link #STATE_CONNECTING} &rarr; {@link #STATE_OPEN}. Lost connections move to
+ * {@link #STATE_BACKOFF} and are retried after a capped exponential delay with jitter,
+ * until the user closes the connection ({@link #STATE_CLOSED_BY_USER}).
+ * All state transitions happen on the main thread.
+ * <p/>
+ * Commands passed to {@link #enqueue(String)} are stored in the {@link Outbox} first
+ * and drained in order as soon as a connection is open.
  */
 public class WebSocketClientService extends Service {
 
     private static final String TAG = WebSocketClientService.class.getName();
 
-    // Broadcast actions to be called on various WebSocket events
-    public static final String ACTION_CONNECTION_ESTABLISHED = "com.xrpoffline.action.CONNECTION_ESTABLISHED";
-    public static final String ACTION_MESSAGE = "com.xrpoffline.action.MESSAGE";
-    public static final String ACTION_CONNECTION_CLOSED = "com.xrpoffline.action.CONNECTION_CLOSED";
-    public static final String ACTION_CONNECTION_ERROR = "com.xrpoffline.action.CONNECTION_ERROR";
+    /**
+     * Request id returned for messages that could not be tagged or sent.
+     */
+    public static final int NO_ID = -1;
+
+    // Names read from replies, in order of the switch cases that handle them
+    private static final String[] ID_NAMES = {"id"};
+    private static final String[] STATUS_NAMES = {"status", "error", "error_message"};
+
+    // Connection states
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_OPEN = 2;
+    public static final int STATE_BACKOFF = 3;
+    public static final int STATE_CLOSED_BY_USER = 4;
+
+    // Delay of the first reconnection attempt
+    private static final long BACKOFF_BASE = 1000;
+
+    // Maximum delay between reconnection attempts
+    private static final long BACKOFF_MAX = 60 * 1000;
+
+    /**
+     * Interface definition for a callback to be invoked when a reply to a request arrives.
+     * <p/>
+     * Callbacks are invoked on the WebSocket client thread.
+     */
+    public interface OnResponseListener {
+
+        /**
+         * Called when the server replied to a request.
+         *
+         * @param id       id of the request
+         * @param response reply received from server
+         * @param latency  time between sending the request and receiving the reply in milliseconds
+         */
+        void onResponse(int id, String response, long latency);
+
+        /**
+         * Called when the request can no longer be answered, because the connection was closed.
+         *
+         * @param id     id of the request
+         * @param reason why the request failed
+         */
+        void onFailure(int id, String reason);
+    }
+
+    private volatile WebSocketClient client;
+
+    private ServerPool pool;
 
-    private WebSocketClient client;
+    // Web address of the server used by current client
+    private volatile String url;
+
+    private volatile int state = STATE_IDLE;
+
+    // Number of reconnection attempts since the connection was last open
+    private int attempt;
+
+    private final Random random = new Random();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private Outbox outbox;
+
+    private ParserService parser;
+
+    private LogRetention retention;
+
+    // Outbox is accessed on its own thread to keep database work off the main thread
+    private HandlerThread outboxThread;
+    private Handler outboxHandler;
+
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+
+    // Requests sent to the server that are waiting for a reply, keyed by request id
+    private final SparseArray<PendingRequest> pendingRequests = new SparseArray<>();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        pool = new ServerPool(this, getResources().getStringArray(R.array.servers));
+
+        outbox = new Outbox(getApplicationContext());
+
+        // Messages are parsed in-process, they never travel through Binder
+        parser = new ParserService(getApplicationContext());
+        parser.start();
+
+        // Old logs are pruned while the service runs
+        retention = new LogRetention(getApplicationContext());
+        retention.start();
+
+        outboxThread = new HandlerThread(TAG);
+        outboxThread.start();
+
+        outboxHandler = new Handler(outboxThread.getLooper());
+        outboxHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                // Replies to commands sent before the service was destroyed are lost
+                outbox.requeueSent();
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        // Socket threads must not outlive the service, late events are ignored
+        closeClient();
+        state = STATE_CLOSED_BY_USER;
+
+        retention.stop();
+
+        parser.stop();
+
+        pool.stopProbing();
+
+        handler.removeCallbacksAndMessages(null);
+
+        // Commands failed by closing the client are requeued first, their updates are
+        // posted already. Quitting right away would drop them.
+        outboxHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                outboxThread.quit();
+            }
+        });
+
+        super.onDestroy();
+    }
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -64,12 +216,45 @@ public class WebSocketClientService extends Service {
         }
     }
 
+    /**
+     * Creates a new connection to the best server in the pool.
+     * <p/>
+     * Does nothing if the client is already connecting or connected.
+     */
+    public void connect() {
+        if (state == STATE_CONNECTING || state == STATE_OPEN) {
+            return;
+        }
+
+        // Connect immediately, e.g. when network becomes available during backoff
+        attempt = 0;
+
+        open(pool.getBestUrl());
+    }
+
     /**
      * Creates a new connection to specific WebSocket server.
+     * <p/>
+     * Does nothing if the client is already connecting or connected to this server.
      *
      * @param url web address of server
      */
     public void connect(String url) {
+        if ((state == STATE_CONNECTING || state == STATE_OPEN) && url.equals(this.url)) {
+            return;
+        }
+
+        attempt = 0;
+
+        open(url);
+    }
+
+    /**
+     * Opens a new connection, previous client, if any, is closed and its events are ignored.
+     *
+     * @param url web address of server
+     */
+    private void open(final String url) {
         URI uri;
         try {
             uri = new URI(url);
@@ -79,74 +264,561 @@ public class WebSocketClientService extends Service {
             return;
         }
 
+        handler.removeCallbacks(reconnectTask);
+
+        closeClient();
+
+        this.url = url;
+        state = STATE_CONNECTING;
+
+        // Servers are ranked only while a connection is wanted
+        pool.startProbing();
+
         client = new WebSocketClient(uri) {
 
-            private final LocalBroadcastManager local =
-                    LocalBroadcastManager.getInstance(getApplicationContext());
+            private final EventBus bus = EventBus.getInstance();
+
+            private final long timeStarted = SystemClock.elapsedRealtime();
+            private boolean isOpened;
 
             @Override
             public void onOpen(ServerHandshake handshake) {
-                final Intent broadcast = new Intent(ACTION_CONNECTION_ESTABLISHED);
+                if (this != client) {
+                    return;
+                }
+
+                isOpened = true;
+                pool.onHandshake(url, SystemClock.elapsedRealtime() - timeStarted);
+
+                final WebSocketClient opened = this;
+                handler.post(new Runnable() {
 
-                local.sendBroadcast(broadcast);
+                    @Override
+                    public void run() {
+                        onClientOpen(opened);
+                    }
+                });
+
+                bus.publish(EventBus.EVENT_CONNECTION_ESTABLISHED);
             }
 
             @Override
             public void onMessage(String message) {
-                final Intent broadcast = new Intent(ACTION_MESSAGE);
-                broadcast.putExtra("message", message);
+                if (this != client) {
+                    return;
+                }
+
+                int id = findRequestId(message);
+                long latency = 0;
+                String command = null;
+
+                if (id != NO_ID) {
+                    final PendingRequest request = removePendingRequest(id);
+                    if (request == null) {
+                        // Not a reply to request of this client
+                        id = NO_ID;
+                    } else {
+                        latency = SystemClock.elapsedRealtime() - request.timeSent;
+                        command = request.command;
+
+                        if (request.listener != null) {
+                            request.listener.onResponse(id, message, latency);
+                        }
 
-                local.sendBroadcast(broadcast);
+                        // Large replies would make the server look slower than it is
+                        if (ServerPool.PING_COMMAND.equals(command)) {
+                            pool.onLatency(url, latency);
+                        }
+                        if (pool.shouldFailOver(url)) {
+                            handler.post(switchServerTask);
+                        }
+                    }
+                }
+
+                bus.publish(EventBus.EVENT_MESSAGE, id, latency, message, command, null);
             }
 
             @Override
             public void onClose(int code, final String reason, boolean remote) {
-                final Intent broadcast = new Intent(ACTION_CONNECTION_CLOSED);
-                broadcast.putExtra("reason", reason);
+                if (this != client) {
+                    return;
+                }
+
+                // Replies to requests in flight will never arrive
+                failPendingRequests(reason);
+
+                // Connection could not be opened or was dropped by the server
+                if (!isOpened || remote) {
+                    pool.onFailure(url);
+                }
+
+                final WebSocketClient closed = this;
+                handler.post(new Runnable() {
 
-                local.sendBroadcast(broadcast);
+                    @Override
+                    public void run() {
+                        onClientClose(closed);
+                    }
+                });
+
+                bus.publish(EventBus.EVENT_CONNECTION_CLOSED, reason);
             }
 
             @Override
             public void onError(Exception e) {
-                final Intent broadcast = new Intent(ACTION_CONNECTION_ERROR);
-                broadcast.putExtra("error_message", e.getMessage());
+                if (this != client) {
+                    return;
+                }
 
-                local.sendBroadcast(broadcast);
+                bus.publish(EventBus.EVENT_CONNECTION_ERROR, e.getMessage());
             }
         };
 
         client.connect();
     }
 
+    /**
+     * Closes the current client, its further events will be ignored. Requests still waiting
+     * for its replies are failed right away, its own close event no longer does it.
+     */
+    private void closeClient() {
+        if (client != null) {
+            final WebSocketClient previous = client;
+            client = null;
+
+            failPendingRequests("Connection closed");
+
+            previous.close();
+        }
+    }
+
+    private void onClientOpen(WebSocketClient opened) {
+        if (opened == client && state == STATE_CONNECTING) {
+            state = STATE_OPEN;
+            attempt = 0;
+
+            // Send commands queued while the connection was down
+            outboxHandler.post(drainTask);
+        }
+    }
+
+    private void onClientClose(WebSocketClient closed) {
+        if (closed != client || state == STATE_CLOSED_BY_USER) {
+            return;
+        }
+
+        client = null;
+
+        scheduleReconnect();
+    }
+
+    /**
+     * Schedules next connection attempt using exponential backoff with jitter.
+     */
+    private void scheduleReconnect() {
+        state = STATE_BACKOFF;
+
+        // Delay doubles with every attempt up to the limit, half of it is randomized
+        final long delay = Math.min(BACKOFF_MAX, BACKOFF_BASE << Math.min(attempt, 16));
+        final long jitteredDelay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+
+        attempt++;
+
+        handler.postDelayed(reconnectTask, jitteredDelay);
+    }
+
+    private final Runnable reconnectTask = new Runnable() {
+
+        @Override
+        public void run() {
+            if (state != STATE_BACKOFF) {
+                return;
+            }
+
+            // Stay in backoff until network is available again, the owner reconnects then
+            if (!NetUtils.isConnectedToNetwork(getApplicationContext())) {
+                return;
+            }
+
+            // Failed servers are ranked lower, so this fails over to the next best one
+            open(pool.getBestUrl());
+        }
+    };
+
+    // Moves the connection to a faster server once the current one becomes too slow
+    private final Runnable switchServerTask = new Runnable() {
+
+        @Override
+        public void run() {
+            // Do not drop requests still waiting for a reply
+            if (isConnected() && getPendingRequestCount() == 0 && pool.shouldFailOver(url)) {
+                Log.i(TAG, "Server " + url + " is too slow, switching");
+
+                open(pool.getBestUrl(url));
+            }
+        }
+    };
+
+    /**
+     * Returns the current connection state.
+     *
+     * @return one of {@code STATE_*} constants
+     */
+    public int getState() {
+        return state;
+    }
+
     /**
      * Checks if connection to a WebSocket server is open.
      *
      * @return {@code true} if the connection is open, {@code false} otherwise
      */
     public boolean isConnected() {
-        return client != null && client.getConnection().isOpen();
+        return state == STATE_OPEN;
     }
 
     /**
-     * Disconnects client from a WebSocket server
+     * Checks if the connection was closed by user action.
+     *
+     * @return {@code true} if the connection was closed by user, {@code false} otherwise
+     */
+    public boolean isClosedByUser() {
+        return state == STATE_CLOSED_BY_USER;
+    }
+
+    /**
+     * Disconnects client from a WebSocket server and stops reconnecting.
      */
     public void disconnect() {
-        if (isConnected()) {
+        state = STATE_CLOSED_BY_USER;
+
+        handler.removeCallbacks(reconnectTask);
+
+        pool.stopProbing();
+
+        if (client != null) {
             client.close();
         }
     }
 
+    /**
+     * Stores a command in the outbox and sends it as soon as the connection is open.
+     *
+     * @param command JSON command to be sent
+     */
+    public void enqueue(final String command) {
+        outboxHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                outbox.add(command);
+
+                drain();
+            }
+        });
+    }
+
+    private final Runnable drainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Sends all queued commands in order. Must be called on the outbox thread.
+     */
+    private void drain() {
+        if (!isConnected()) {
+            return;
+        }
+
+        final List<Outbox.Entry> entries = outbox.takeQueued();
+
+        for (int i = 0; i < entries.size(); i++) {
+            final Outbox.Entry entry = entries.get(i);
+
+            if (!isJsonObject(entry.command)) {
+                // Server rejects anything that is not a JSON command
+                outbox.setStatus(entry.id, Outbox.STATUS_FAILED, "Invalid command");
+
+                continue;
+            }
+
+            if (send(entry.command, new OutboxListener(entry.id)) == NO_ID) {
+                // Connection was lost while draining, the rest is sent again on reconnect
+                outbox.requeue(entries.subList(i, entries.size()));
+
+                return;
+            }
+        }
+    }
+
+    private static boolean isJsonObject(String text) {
+        try {
+            new JSONObject(text);
+
+            return true;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Updates status of an outbox command once its reply arrives.
+     */
+    private class OutboxListener implements OnResponseListener {
+
+        private final long rowId;
+
+        OutboxListener(long rowId) {
+            this.rowId = rowId;
+        }
+
+        @Override
+        public void onResponse(int id, final String response, long latency) {
+            outboxHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    final String error = findError(response);
+
+                    outbox.setStatus(rowId, error == null ?
+                            Outbox.STATUS_DONE : Outbox.STATUS_FAILED, error);
+                }
+            });
+        }
+
+        @Override
+        public void onFailure(int id, String reason) {
+            outboxHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    // Send it again once the connection is back
+                    outbox.setStatus(rowId, Outbox.STATUS_QUEUED, null);
+                }
+            });
+        }
+    }
+
     /**
      * Sends request to a WebSocket Server.
      *
      * @param request message to be sent
+     * @return id assigned to the request, or {@link #NO_ID} if the request was not tagged
+     */
+    public int send(String request) {
+        return send(request, null);
+    }
+
+    /**
+     * Sends request to a WebSocket Server and registers a listener for its reply.
+     * <p/>
+     * An unique {@code id} field is added to the JSON command, any existing one is replaced.
+     * Requests that are not JSON objects are sent untouched and can not be correlated.
+     *
+     * @param request  JSON command to be sent
+     * @param listener listener to be notified of the reply, may be {@code null}
+     * @return id assigned to the request, or {@link #NO_ID} if the request was not tagged
      */
-    public void send(String request) {
-        if (isConnected()) {
-            client.send(request);
-        } else {
+    public int send(String request, OnResponseListener listener) {
+        // Client may be closed or replaced on the main thread while this runs
+        final WebSocketClient client = this.client;
+
+        if (!isConnected() || client == null) {
             Log.e(TAG, "Unable to send request, client not connected");
+
+            return NO_ID;
+        }
+
+        final int id = nextRequestId.incrementAndGet();
+
+        String text;
+        String command;
+        try {
+            final JSONObject json = new JSONObject(request);
+            json.put("id", id);
+
+            text = json.toString();
+            command = json.optString("command", null);
+        } catch (JSONException e) {
+            Log.w(TAG, "Request is not a JSON object, sending it without id");
+
+            sendText(client, request);
+
+            return NO_ID;
+        }
+
+        synchronized (pendingRequests) {
+            pendingRequests.put(id, new PendingRequest(command, listener));
+        }
+
+        if (!sendText(client, text)) {
+            // No reply will ever arrive
+            removePendingRequest(id);
+
+            return NO_ID;
+        }
+
+        return id;
+    }
+
+    /**
+     * Sends text through a client that may have been closed in the meantime.
+     *
+     * @return {@code true} if the text was handed over to the connection
+     */
+    private static boolean sendText(WebSocketClient client, String text) {
+        try {
+            client.send(text);
+
+            return true;
+        } catch (WebsocketNotConnectedException | NotYetConnectedException e) {
+            Log.w(TAG, "Unable to send request, connection closed", e);
+
+            return false;
+        }
+    }
+
+    /**
+     * Returns the count of requests waiting for a reply.
+     *
+     * @return number of requests in flight
+     */
+    public int getPendingRequestCount() {
+        synchronized (pendingRequests) {
+            return pendingRequests.size();
+        }
+    }
+
+    private PendingRequest removePendingRequest(int id) {
+        synchronized (pendingRequests) {
+            final PendingRequest request = pendingRequests.get(id);
+            if (request != null) {
+                pendingRequests.remove(id);
+            }
+
+            return request;
+        }
+    }
+
+    /**
+     * Notifies listeners of all requests in flight that no reply will be received.
+     *
+     * @param reason why the requests failed
+     */
+    private void failPendingRequests(String reason) {
+        final SparseArray<PendingRequest> failed;
+        synchronized (pendingRequests) {
+            failed = pendingRequests.clone();
+            pendingRequests.clear();
+        }
+
+        for (int i = 0; i < failed.size(); i++) {
+            final PendingRequest request = failed.valueAt(i);
+            if (request.listener != null) {
+                request.listener.onFailure(failed.keyAt(i), reason);
+            }
+        }
+    }
+
+    /**
+     * Reads request id from the server reply.
+     *
+     * @param message reply received from server
+     * @return request id, or {@link #NO_ID} if the message is not a reply to a tagged request
+     */
+    private static int findRequestId(String message) {
+        try {
+            final JsonTokenizer json = new JsonTokenizer(message);
+
+            // Only top level names are read, stops as soon as the id is found
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName(ID_NAMES) == 0) {
+                    return json.nextInt();
+                }
+
+                json.skipValue();
+            }
+        } catch (JSONException e) {
+            // Not a JSON object, can not be a reply
+        }
+
+        return NO_ID;
+    }
+
+    /**
+     * Reads the error description from the server reply.
+     *
+     * @param message reply received from server
+     * @return error description, or {@code null} if the request succeeded
+     */
+    private static String findError(String message) {
+        String status = null;
+        String error = null;
+        String errorMessage = null;
+
+        try {
+            final JsonTokenizer json = new JsonTokenizer(message);
+
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName(STATUS_NAMES)) {
+                    case 0: { // status
+                        status = json.nextString();
+
+                        break;
+                    }
+                    case 1: { // error
+                        error = json.nextString();
+
+                        break;
+                    }
+                    case 2: { // error_message
+                        errorMessage = json.nextString();
+
+                        break;
+                    }
+                    default: {
+                        json.skipValue();
+
+                        break;
+                    }
+                }
+            }
+            json.endObject();
+        } catch (JSONException e) {
+            return "Invalid response";
+        }
+
+        if ("success".equals(status)) {
+            return null;
+        }
+
+        if (errorMessage != null) {
+            return errorMessage;
+        }
+
+        return error != null ? error : "";
+    }
+
+    /**
+     * Request sent to the server that waits for a reply.
+     */
+    private static class PendingRequest {
+
+        final String command;
+        final OnResponseListener listener;
+        final long timeSent;
+
+        PendingRequest(String command, OnResponseListener listener) {
+            this.command = command;
+            this.listener = listener;
+
+            timeSent = SystemClock.elapsedRealtime();
         }
     }
 }
\ No newline at end of file